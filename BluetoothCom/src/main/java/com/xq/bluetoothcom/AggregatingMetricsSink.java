@@ -0,0 +1,289 @@
+package com.xq.bluetoothcom;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//在内存中按设备汇总指标，同时累加一份所有设备的总计（可以关闭）。
+//记录路径只有原子操作，每个设备只在第一次记录时分配一次，适合线上常开，按需读取后上报
+public class AggregatingMetricsSink implements MetricsSink {
+
+    private static final Op[] OPS = Op.values();
+
+    private final Clock clock;
+
+    private final boolean rollUp;
+
+    private final Metrics total;
+
+    private final ConcurrentMap<String, Metrics> deviceMetricsMap = new ConcurrentHashMap<>();
+
+    public AggregatingMetricsSink() {
+        this(Clock.SYSTEM);
+    }
+
+    public AggregatingMetricsSink(Clock clock) {
+        this(clock, true);
+    }
+
+    //rollUp为false时只按设备汇总，getTotal()一直为空
+    public AggregatingMetricsSink(Clock clock, boolean rollUp) {
+        this.clock = clock;
+        this.rollUp = rollUp;
+        this.total = new Metrics(clock);
+    }
+
+    @Override
+    public void recordOp(String device, Op op, long queueWait, long onAir) {
+        getOrCreate(device).recordOp(op, queueWait, onAir);
+        if (rollUp){
+            total.recordOp(op, queueWait, onAir);
+        }
+    }
+
+    @Override
+    public void recordTimeout(String device, Op op) {
+        getOrCreate(device).timeouts.incrementAndGet(op.ordinal());
+        if (rollUp){
+            total.timeouts.incrementAndGet(op.ordinal());
+        }
+    }
+
+    @Override
+    public void recordNotification(String device, UUID characterUUID, int bytes) {
+        getOrCreate(device).recordNotification(characterUUID, bytes);
+        if (rollUp){
+            total.recordNotification(characterUUID, bytes);
+        }
+    }
+
+    @Override
+    public void recordConnectAttempt(String device, int retryCount) {
+        getOrCreate(device).recordConnectAttempt(retryCount);
+        if (rollUp){
+            total.recordConnectAttempt(retryCount);
+        }
+    }
+
+    @Override
+    public void recordServicesDiscovered(String device, long elapsed) {
+        getOrCreate(device).servicesDiscoveredHistogram.record(elapsed);
+        if (rollUp){
+            total.servicesDiscoveredHistogram.record(elapsed);
+        }
+    }
+
+    private Metrics getOrCreate(String device){
+        Metrics metrics = deviceMetricsMap.get(device);
+        if (metrics == null){
+            //只有每个设备的第一次记录会走到这里
+            Metrics newMetrics = new Metrics(clock);
+            metrics = deviceMetricsMap.putIfAbsent(device, newMetrics);
+            if (metrics == null){
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    //所有设备的总计
+    public Metrics getTotal() {
+        return total;
+    }
+
+    //没有记录过的设备返回null
+    public Metrics getDeviceMetrics(String device){
+        return deviceMetricsMap.get(device);
+    }
+
+    public Set<String> getDevices(){
+        return Collections.unmodifiableSet(deviceMetricsMap.keySet());
+    }
+
+    //设备不再使用时移除，避免长期运行时设备越积越多
+    public void removeDevice(String device){
+        deviceMetricsMap.remove(device);
+    }
+
+    public LatencyHistogram getQueueWaitHistogram(Op op){
+        return total.getQueueWaitHistogram(op);
+    }
+
+    public LatencyHistogram getOnAirHistogram(Op op){
+        return total.getOnAirHistogram(op);
+    }
+
+    public long getTimeoutCount(Op op){
+        return total.getTimeoutCount(op);
+    }
+
+    public long getConnectAttempts() {
+        return total.getConnectAttempts();
+    }
+
+    public long getConnectRetries() {
+        return total.getConnectRetries();
+    }
+
+    public LatencyHistogram getServicesDiscoveredHistogram() {
+        return total.getServicesDiscoveredHistogram();
+    }
+
+    public long getNotificationCount(UUID characterUUID){
+        return total.getNotificationCount(characterUUID);
+    }
+
+    public long getNotificationBytes(UUID characterUUID){
+        return total.getNotificationBytes(characterUUID);
+    }
+
+    public float getNotificationsPerSecond(UUID characterUUID){
+        return total.getNotificationsPerSecond(characterUUID);
+    }
+
+    public float getNotificationBytesPerSecond(UUID characterUUID){
+        return total.getNotificationBytesPerSecond(characterUUID);
+    }
+
+    public void reset(){
+        total.reset();
+        deviceMetricsMap.clear();
+    }
+
+    //一个设备（或总计）的指标
+    public static class Metrics {
+
+        private final Clock clock;
+
+        private final LatencyHistogram[] queueWaitHistograms = new LatencyHistogram[OPS.length];
+
+        private final LatencyHistogram[] onAirHistograms = new LatencyHistogram[OPS.length];
+
+        private final AtomicLongArray timeouts = new AtomicLongArray(OPS.length);
+
+        private final AtomicLong connectAttempts = new AtomicLong();
+
+        private final AtomicLong connectRetries = new AtomicLong();
+
+        private final LatencyHistogram servicesDiscoveredHistogram = new LatencyHistogram();
+
+        private final ConcurrentMap<UUID, NotifyStats> notifyStatsMap = new ConcurrentHashMap<>();
+
+        private Metrics(Clock clock) {
+            this.clock = clock;
+            for (int i = 0; i < OPS.length; i++){
+                queueWaitHistograms[i] = new LatencyHistogram();
+                onAirHistograms[i] = new LatencyHistogram();
+            }
+        }
+
+        private void recordOp(Op op, long queueWait, long onAir) {
+            queueWaitHistograms[op.ordinal()].record(queueWait);
+            onAirHistograms[op.ordinal()].record(onAir);
+        }
+
+        private void recordNotification(UUID characterUUID, int bytes) {
+            NotifyStats stats = notifyStatsMap.get(characterUUID);
+            if (stats == null){
+                //只有每个特征值的第一条通知会走到这里
+                NotifyStats newStats = new NotifyStats(clock.uptimeMillis());
+                stats = notifyStatsMap.putIfAbsent(characterUUID, newStats);
+                if (stats == null){
+                    stats = newStats;
+                }
+            }
+            stats.count.incrementAndGet();
+            stats.bytes.addAndGet(bytes);
+        }
+
+        private void recordConnectAttempt(int retryCount) {
+            connectAttempts.incrementAndGet();
+            if (retryCount > 0){
+                connectRetries.incrementAndGet();
+            }
+        }
+
+        public LatencyHistogram getQueueWaitHistogram(Op op){
+            return queueWaitHistograms[op.ordinal()];
+        }
+
+        public LatencyHistogram getOnAirHistogram(Op op){
+            return onAirHistograms[op.ordinal()];
+        }
+
+        public long getTimeoutCount(Op op){
+            return timeouts.get(op.ordinal());
+        }
+
+        public long getConnectAttempts() {
+            return connectAttempts.get();
+        }
+
+        public long getConnectRetries() {
+            return connectRetries.get();
+        }
+
+        public LatencyHistogram getServicesDiscoveredHistogram() {
+            return servicesDiscoveredHistogram;
+        }
+
+        public long getNotificationCount(UUID characterUUID){
+            NotifyStats stats = notifyStatsMap.get(characterUUID);
+            return stats == null ? 0 : stats.count.get();
+        }
+
+        public long getNotificationBytes(UUID characterUUID){
+            NotifyStats stats = notifyStatsMap.get(characterUUID);
+            return stats == null ? 0 : stats.bytes.get();
+        }
+
+        //从收到第一条通知（或上次reset）至今的平均速率
+        public float getNotificationsPerSecond(UUID characterUUID){
+            NotifyStats stats = notifyStatsMap.get(characterUUID);
+            if (stats == null){
+                return 0;
+            }
+            long elapsed = clock.uptimeMillis() - stats.startTime;
+            return elapsed <= 0 ? 0 : stats.count.get() * 1000f / elapsed;
+        }
+
+        public float getNotificationBytesPerSecond(UUID characterUUID){
+            NotifyStats stats = notifyStatsMap.get(characterUUID);
+            if (stats == null){
+                return 0;
+            }
+            long elapsed = clock.uptimeMillis() - stats.startTime;
+            return elapsed <= 0 ? 0 : stats.bytes.get() * 1000f / elapsed;
+        }
+
+        private void reset(){
+            for (int i = 0; i < OPS.length; i++){
+                queueWaitHistograms[i].reset();
+                onAirHistograms[i].reset();
+                timeouts.set(i, 0);
+            }
+            connectAttempts.set(0);
+            connectRetries.set(0);
+            servicesDiscoveredHistogram.reset();
+            notifyStatsMap.clear();
+        }
+    }
+
+    private static class NotifyStats {
+
+        private final long startTime;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong bytes = new AtomicLong();
+
+        private NotifyStats(long startTime) {
+            this.startTime = startTime;
+        }
+    }
+
+}
@@ -1,31 +1,151 @@
 package com.xq.bluetoothcom;
 
+import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
+import android.os.Build;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class BluetoothChannel {
 
+    //标准预设通知的Descriptor
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
     private final BluetoothGatt bluetoothGatt;
 
     private final GattCallbackDispatcher gattCallbackDispatcher;
 
-    private final SerialWorkManager serialWorkManager = new SerialWorkManager();
+    private final SerialWorkManager serialWorkManager;
 
     private final OnCloseListener onCloseListener;
 
+    //ATT协议头占3个字节，默认MTU下单包最多写入20个字节
+    static final int DEFAULT_MTU = 23;
+
+    private static final int ATT_HEADER_SIZE = 3;
+
+    //Prepare Write还要多带2字节的offset
+    private static final int PREPARE_WRITE_HEADER_SIZE = 5;
+
+    //ATT协议规定一次请求30秒内没有响应即视为失败
+    public static final int DEFAULT_OPERATION_TIMEOUT = 30*1000;
+
+    //操作超时和被取消时回调onError的code
+    public static final String CODE_TIMEOUT = "timeout";
+
+    public static final String CODE_CANCELLED = "cancelled";
+
+    //通道关闭（主动close或者连接断开）时，排队中和进行中的操作以这个code回调onError
+    public static final String CODE_DISCONNECTED = "disconnected";
+
+    private volatile int operationTimeout = DEFAULT_OPERATION_TIMEOUT;
+
+    private volatile int mtu;
+
+    //发现服务后一次性建立的句柄缓存，onServiceChanged时失效，下次查找时重建
+    private volatile Map<Object, Object> handleCache;
+
+    private final String device;
+
+    private final MetricsSink metricsSink;
+
+    private final BufferPool bufferPool = new BufferPool();
+
+    private final ReadCache readCache;
+
+    private final TrafficController trafficController;
+
+    //串行队列的任务和超时回调在这里执行
+    private final Executor executor;
+
+    private volatile int txPhy = BluetoothDevice.PHY_LE_1M;
+
+    private volatile int rxPhy = BluetoothDevice.PHY_LE_1M;
+
     public BluetoothChannel(final BluetoothGatt bluetoothGatt, final GattCallbackDispatcher gattCallbackDispatcher, final OnCloseListener onCloseListener) {
+        this(bluetoothGatt, gattCallbackDispatcher, DEFAULT_MTU, MetricsSink.NONE, HandlerExecutor.MAIN, onCloseListener);
+    }
+
+    BluetoothChannel(final BluetoothGatt bluetoothGatt, final GattCallbackDispatcher gattCallbackDispatcher, final int mtu, final MetricsSink metricsSink, final Executor executor, final OnCloseListener onCloseListener) {
         this.bluetoothGatt = bluetoothGatt;
         this.gattCallbackDispatcher = gattCallbackDispatcher;
+        this.mtu = mtu;
         this.onCloseListener = onCloseListener;
+        this.device = bluetoothGatt.getDevice().getAddress();
+        this.metricsSink = metricsSink;
+        this.executor = executor;
+        this.serialWorkManager = new SerialWorkManager(executor);
+        this.readCache = new ReadCache(Clock.SYSTEM, executor);
+        this.serialWorkManager.setMetricsSink(device, metricsSink);
+        this.trafficController = new TrafficController(bluetoothGatt, serialWorkManager);
+        this.handleCache = buildHandleCache();
         this.gattCallbackDispatcher.registerGattCallback(new BluetoothGattCallback() {
+            @Override
+            public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+                super.onMtuChanged(gatt, mtu, status);
+                if (status == BluetoothGatt.GATT_SUCCESS){
+                    BluetoothChannel.this.mtu = mtu;
+                }
+            }
+
+            @Override
+            public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+                super.onPhyUpdate(gatt, txPhy, rxPhy, status);
+                if (status == BluetoothGatt.GATT_SUCCESS){
+                    BluetoothChannel.this.txPhy = txPhy;
+                    BluetoothChannel.this.rxPhy = rxPhy;
+                    trafficController.onPhyUpdate(txPhy, rxPhy);
+                }
+            }
+
+            @Override
+            public void onPhyRead(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+                super.onPhyRead(gatt, txPhy, rxPhy, status);
+                if (status == BluetoothGatt.GATT_SUCCESS){
+                    BluetoothChannel.this.txPhy = txPhy;
+                    BluetoothChannel.this.rxPhy = rxPhy;
+                    trafficController.onPhyUpdate(txPhy, rxPhy);
+                }
+            }
+
+            @Override
+            public void onServiceChanged(BluetoothGatt gatt) {
+                super.onServiceChanged(gatt);
+                handleCache = null;
+                readCache.invalidateAll();
+            }
+
+            //API 33的新方法父类默认会转调这里
+            @Override
+            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                super.onCharacteristicChanged(gatt, characteristic);
+                readCache.invalidateCharacteristic(characteristic.getService().getUuid(), characteristic.getUuid());
+            }
+
+            @Override
+            public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+                super.onServicesDiscovered(gatt, status);
+                if (status == BluetoothGatt.GATT_SUCCESS){
+                    handleCache = buildHandleCache();
+                }
+            }
+
             @Override
             public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
                 super.onConnectionStateChange(gatt, status, newState);
@@ -33,6 +153,8 @@ public class BluetoothChannel {
                     //
                     gattCallbackDispatcher.clearGattCallback();
                     notifyCallbackMap.clear();
+                    readCache.clear();
+                    trafficController.close();
                     //
                     serialWorkManager.close();
                     //
@@ -55,6 +177,8 @@ public class BluetoothChannel {
         //
         gattCallbackDispatcher.clearGattCallback();
         notifyCallbackMap.clear();
+        readCache.clear();
+        trafficController.close();
         //
         serialWorkManager.close();
         //
@@ -64,266 +188,1064 @@ public class BluetoothChannel {
         onCloseListener.onClose();
     }
 
-    public void writeCharacteristic(final String serviceUUID, final String characterUUID, final byte[] bytes,final OnActionCallback callback){
-        serialWorkManager.joinWork(serialWorkManager.new WorkRunnable(){
+    //各优先级操作的排队等待时间，用于观察CONTROL操作的p99
+    public LatencyHistogram getQueueWaitHistogram(Priority priority){
+        return serialWorkManager.getQueueWaitHistogram(priority);
+    }
+
+    //设置后该特征值的读取会被合并，成功的结果在ttl毫秒内直接返回。ttl为0时只合并同时进行的读取，小于0时关闭。
+    //收到该特征值的通知、写入该特征值或者服务变化时缓存失效
+    public void setReadCacheTtl(CharacteristicRef ref, long ttl){
+        readCache.setTtl(ref, ttl);
+    }
+
+    public void setReadCacheTtl(DescriptorRef ref, long ttl){
+        readCache.setTtl(ref, ttl);
+    }
+
+    public void invalidateReadCache(){
+        readCache.invalidateAll();
+    }
+
+    //开启后批量传输或高频通知期间自动请求CONNECTION_PRIORITY_HIGH和2M PHY，空闲后退回idlePriority和原来的PHY
+    public void setTrafficAware(boolean enabled){
+        setTrafficAware(enabled, BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+    }
+
+    public void setTrafficAware(boolean enabled, int idlePriority){
+        trafficController.setEnabled(enabled, idlePriority);
+    }
+
+    //手动指定连接优先级，会关闭按流量自动调整
+    public boolean requestConnectionPriority(int priority){
+        return trafficController.requestConnectionPriority(priority, true);
+    }
+
+    //最近一次请求成功的连接优先级，系统没有公开实际的连接间隔
+    public int getConnectionPriority(){
+        return trafficController.getConnectionPriority();
+    }
+
+    //API 26以下不支持，直接返回false
+    @SuppressLint("NewApi")
+    public boolean setPreferredPhy(int txPhy, int rxPhy, int phyOptions){
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O){
+            return false;
+        }
+        bluetoothGatt.setPreferredPhy(txPhy, rxPhy, phyOptions);
+        return true;
+    }
+
+    //结果通过getTxPhy/getRxPhy获取
+    @SuppressLint("NewApi")
+    public boolean readPhy(){
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O){
+            return false;
+        }
+        bluetoothGatt.readPhy();
+        return true;
+    }
+
+    public int getTxPhy() {
+        return txPhy;
+    }
+
+    public int getRxPhy() {
+        return rxPhy;
+    }
+
+    void onBulkStart(){
+        trafficController.onBulkStart();
+    }
+
+    void onBulkActivity(){
+        trafficController.onBulkActivity();
+    }
+
+    public String getAddress() {
+        return device;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    //单次写入的最大字节数
+    public int getMaxPayloadSize() {
+        return mtu - ATT_HEADER_SIZE;
+    }
+
+    //默认超时与ATT协议的事务超时一致，拆包写入时是整个操作的时间
+    public void setOperationTimeout(int operationTimeout) {
+        if (operationTimeout <= 0){
+            throw new IllegalArgumentException("operationTimeout must be greater than 0");
+        }
+        this.operationTimeout = operationTimeout;
+    }
+
+    public int getOperationTimeout() {
+        return operationTimeout;
+    }
+
+    public Operation requestMtu(final int mtu, final OnActionCallback callback){
+        return requestMtu(mtu, Priority.INTERACTIVE, callback);
+    }
+
+    public Operation requestMtu(final int mtu, final Priority priority, final OnActionCallback callback){
+        return requestMtu(mtu, priority, operationTimeout, callback);
+    }
+
+    public Operation requestMtu(final int mtu, final Priority priority, final int timeout, final OnActionCallback callback){
+        return join(timeout, priority, new ChannelWork(MetricsSink.Op.REQUEST_MTU, "requestMtu"){
             @Override
             public void run() {
-                if (writeCharacteristic(serviceUUID, characterUUID, bytes)) {
-                    gattCallbackDispatcher.registerGattCallback(new BluetoothGattCallback() {
+                if (bluetoothGatt.requestMtu(mtu)) {
+                    register(new BluetoothGattCallback() {
                         @Override
-                        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-                            super.onCharacteristicWrite(gatt, characteristic, status);
-                            gattCallbackDispatcher.unregisterGattCallback(this);
+                        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+                            super.onMtuChanged(gatt, mtu, status);
                             if (status == BluetoothGatt.GATT_SUCCESS) {
-                                callback.onSuccess();
+                                if (complete()){
+                                    callback.onSuccess();
+                                }
                             } else {
-                                callback.onError("onCharacteristicWrite fail", String.valueOf(status));
+                                fail("onMtuChanged fail", String.valueOf(status));
                             }
-                            leave();
                         }
                     });
                 } else {
-                    callback.onError("writeCharacteristic error", "");
-                    leave();
+                    fail("requestMtu error", "");
                 }
             }
+
+            @Override
+            void onFail(String info, String code) {
+                callback.onError(info, code);
+            }
         });
     }
 
-    public void readCharacteristic(final String serviceUUID, final String characterUUID,final OnReadCallback callback){
-        serialWorkManager.joinWork(serialWorkManager.new WorkRunnable() {
+    public Operation writeCharacteristic(final String serviceUUID, final String characterUUID, final byte[] bytes,final OnActionCallback callback){
+        return writeCharacteristic(CharacteristicRef.of(serviceUUID, characterUUID), bytes, callback);
+    }
+
+    //超过getMaxPayloadSize()的数据会按MTU自动拆包，在同一个串行任务中依次写完，对端按字节流接收
+    public Operation writeCharacteristic(final CharacteristicRef ref, final byte[] bytes,final OnActionCallback callback){
+        return writeCharacteristic(ref, bytes, Priority.INTERACTIVE, callback);
+    }
+
+    public Operation writeCharacteristic(final CharacteristicRef ref, final byte[] bytes, final Priority priority, final OnActionCallback callback){
+        return writeCharacteristic(ref, bytes, priority, operationTimeout, callback);
+    }
+
+    public Operation writeCharacteristic(final CharacteristicRef ref, final byte[] bytes, final Priority priority, final int timeout, final OnActionCallback callback){
+        return join(timeout, priority, new ChannelWork(MetricsSink.Op.WRITE_CHARACTERISTIC, "writeCharacteristic", Collections.singletonList(ref)){
+
+            private int offset;
+
+            private int fragmentSize;
+
+            private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+                @Override
+                public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                    super.onCharacteristicWrite(gatt, characteristic, status);
+                    if (status != BluetoothGatt.GATT_SUCCESS) {
+                        fail("onCharacteristicWrite fail", String.valueOf(status));
+                        return;
+                    }
+                    offset += fragmentSize;
+                    if (offset < bytes.length){
+                        writeNextFragment();
+                        return;
+                    }
+                    if (complete()){
+                        callback.onSuccess();
+                    }
+                }
+            };
+
             @Override
             public void run() {
-                if (readCharacteristic(serviceUUID, characterUUID)) {
-                    gattCallbackDispatcher.registerGattCallback(new BluetoothGattCallback() {
+                if (bytes.length > getMaxPayloadSize()){
+                    trafficController.onBulkStart();
+                }
+                register(gattCallback);
+                writeNextFragment();
+            }
+
+            private void writeNextFragment(){
+                fragmentSize = Math.min(bytes.length - offset, getMaxPayloadSize());
+                byte[] fragment = fragmentSize == bytes.length ? bytes : Arrays.copyOfRange(bytes, offset, offset + fragmentSize);
+                if (!writeCharacteristic(ref, fragment)) {
+                    fail("writeCharacteristic error", "");
+                }
+            }
+
+            @Override
+            void onFail(String info, String code) {
+                callback.onError(info, code);
+            }
+        });
+    }
+
+    public Operation writeFrame(final String serviceUUID, final String characterUUID, final byte[] bytes,final OnActionCallback callback){
+        return writeFrame(CharacteristicRef.of(serviceUUID, characterUUID), bytes, callback);
+    }
+
+    //整帧写入，对端需要按FrameAssembler的格式(2字节长度+数据)解析
+    public Operation writeFrame(final CharacteristicRef ref, final byte[] bytes,final OnActionCallback callback){
+        return writeFrame(ref, bytes, Priority.INTERACTIVE, callback);
+    }
+
+    public Operation writeFrame(final CharacteristicRef ref, final byte[] bytes, final Priority priority, final OnActionCallback callback){
+        return writeFrame(ref, bytes, priority, operationTimeout, callback);
+    }
+
+    public Operation writeFrame(final CharacteristicRef ref, final byte[] bytes, final Priority priority, final int timeout, final OnActionCallback callback){
+        return writeCharacteristic(ref, FrameAssembler.encode(bytes), priority, timeout, callback);
+    }
+
+    public WriteStream openWriteStream(final String serviceUUID, final String characterUUID){
+        return openWriteStream(CharacteristicRef.of(serviceUUID, characterUUID));
+    }
+
+    //批量传输使用，写入不等待对端响应，详见WriteStream
+    public WriteStream openWriteStream(final CharacteristicRef ref){
+        return openWriteStream(ref, Priority.BULK);
+    }
+
+    public WriteStream openWriteStream(final CharacteristicRef ref, final Priority priority){
+        return new WriteStream(this, bluetoothGatt, gattCallbackDispatcher, serialWorkManager, executor, readCache, ref, priority);
+    }
+
+    //多个特征值的写入作为一个可靠写事务提交，详见ReliableWriteTransaction
+    public ReliableWriteTransaction newReliableWrite(){
+        return new ReliableWriteTransaction(this);
+    }
+
+    Operation executeReliableWrite(final List<CharacteristicRef> refs, final List<byte[]> values, final Priority priority, final int timeout, final OnActionCallback callback){
+        return join(timeout, priority, new ChannelWork(MetricsSink.Op.RELIABLE_WRITE, "reliableWrite", refs){
+
+            private int index;
+
+            //begin之后、execute之前失败或取消都要abort，否则设备会一直暂存着已经准备的写入
+            private volatile boolean preparing;
+
+            //abort后等onReliableWriteCompleted回来再回调失败，避免下一个操作撞上还没结束的事务
+            private String abortInfo;
+
+            private String abortCode;
+
+            private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+                @Override
+                public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                    super.onCharacteristicWrite(gatt, characteristic, status);
+                    if (status != BluetoothGatt.GATT_SUCCESS) {
+                        abort("onCharacteristicWrite fail", String.valueOf(status));
+                        return;
+                    }
+                    index++;
+                    if (index < refs.size()){
+                        writeNext();
+                        return;
+                    }
+                    preparing = false;
+                    if (!bluetoothGatt.executeReliableWrite()){
+                        bluetoothGatt.abortReliableWrite();
+                        fail("executeReliableWrite error", "");
+                    }
+                }
+
+                @Override
+                public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
+                    super.onReliableWriteCompleted(gatt, status);
+                    if (abortInfo != null){
+                        fail(abortInfo, abortCode);
+                    } else if (status == BluetoothGatt.GATT_SUCCESS) {
+                        if (complete()){
+                            callback.onSuccess();
+                        }
+                    } else {
+                        fail("onReliableWriteCompleted fail", String.valueOf(status));
+                    }
+                }
+            };
+
+            @Override
+            public void run() {
+                register(gattCallback);
+                if (!bluetoothGatt.beginReliableWrite()){
+                    fail("beginReliableWrite error", "");
+                    return;
+                }
+                preparing = true;
+                writeNext();
+            }
+
+            private void writeNext(){
+                byte[] value = values.get(index);
+                if (value.length > mtu - PREPARE_WRITE_HEADER_SIZE){
+                    abort("reliable write value too long", "");
+                } else if (!writeCharacteristic(refs.get(index), value)) {
+                    abort("writeCharacteristic error", "");
+                }
+            }
+
+            private void abort(String info, String code){
+                preparing = false;
+                abortInfo = info;
+                abortCode = code;
+                bluetoothGatt.abortReliableWrite();
+            }
+
+            @Override
+            void onFail(String info, String code) {
+                //超时或取消时事务还没执行
+                if (preparing){
+                    preparing = false;
+                    bluetoothGatt.abortReliableWrite();
+                }
+                callback.onError(info, code);
+            }
+        });
+    }
+
+    public Operation readCharacteristic(final String serviceUUID, final String characterUUID,final OnReadCallback callback){
+        return readCharacteristic(CharacteristicRef.of(serviceUUID, characterUUID), callback);
+    }
+
+    public Operation readCharacteristic(final CharacteristicRef ref,final OnReadCallback callback){
+        return readCharacteristic(ref, Priority.INTERACTIVE, callback);
+    }
+
+    public Operation readCharacteristic(final CharacteristicRef ref, final Priority priority, final OnReadCallback callback){
+        return readCharacteristic(ref, priority, operationTimeout, callback);
+    }
+
+    //命中读缓存或者合并到同时进行的读取时返回的句柄不能取消
+    public Operation readCharacteristic(final CharacteristicRef ref, final Priority priority, final int timeout, final OnReadCallback onReadCallback){
+        final OnReadCallback callback = readCache.read(ref, onReadCallback);
+        if (callback == null){
+            return new Operation(null);
+        }
+        return join(timeout, priority, new ChannelWork(MetricsSink.Op.READ_CHARACTERISTIC, "readCharacteristic") {
+            @Override
+            public void run() {
+                if (readCharacteristic(ref)) {
+                    register(new BluetoothGattCallback() {
                         @Override
                         public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
                             super.onCharacteristicRead(gatt, characteristic, status);
-                            gattCallbackDispatcher.unregisterGattCallback(this);
                             if (status == BluetoothGatt.GATT_SUCCESS) {
-                                callback.onRead(characteristic.getValue());
+                                if (complete()){
+                                    callback.onRead(characteristic.getValue());
+                                }
                             } else {
-                                callback.onError("onCharacteristicRead fail", String.valueOf(status));
+                                fail("onCharacteristicRead fail", String.valueOf(status));
                             }
-                            leave();
                         }
                     });
                 } else {
-                    callback.onError("readCharacteristic error", "");
-                    leave();
+                    fail("readCharacteristic error", "");
+                }
+            }
+
+            @Override
+            void onFail(String info, String code) {
+                callback.onError(info, code);
+            }
+        });
+    }
+
+    public Operation readMany(final List<CharacteristicRef> refs, final OnReadManyCallback callback){
+        return readMany(refs, Priority.INTERACTIVE, callback);
+    }
+
+    public Operation readMany(final List<CharacteristicRef> refs, final Priority priority, final OnReadManyCallback callback){
+        return readMany(refs, priority, operationTimeout, callback);
+    }
+
+    //在同一个串行任务中依次读取多个特征值，只注册一次回调，上一个读取的回调里直接发起下一个，
+    //中间不经过executor。结果按refs的顺序放在Map里，任何一个失败整体失败。不经过读缓存，也不更新读缓存
+    public Operation readMany(final List<CharacteristicRef> refs, final Priority priority, final int timeout, final OnReadManyCallback callback){
+        final List<CharacteristicRef> keys = new ArrayList<>(new LinkedHashSet<>(refs));
+        if (keys.isEmpty()){
+            callback.onRead(new LinkedHashMap<CharacteristicRef, byte[]>());
+            return new Operation(null);
+        }
+        return join(timeout, priority, new ChannelWork(MetricsSink.Op.READ_MANY, "readMany") {
+
+            private final Map<CharacteristicRef, byte[]> values = new LinkedHashMap<>();
+
+            private int index;
+
+            private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+                @Override
+                public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                    super.onCharacteristicRead(gatt, characteristic, status);
+                    if (status != BluetoothGatt.GATT_SUCCESS) {
+                        fail("onCharacteristicRead fail: " + keys.get(index).getCharacterUUID(), String.valueOf(status));
+                        return;
+                    }
+                    values.put(keys.get(index), characteristic.getValue());
+                    index++;
+                    if (index < keys.size()){
+                        readNext();
+                        return;
+                    }
+                    if (complete()){
+                        callback.onRead(values);
+                    }
                 }
+            };
+
+            @Override
+            public void run() {
+                register(gattCallback);
+                readNext();
+            }
+
+            private void readNext(){
+                if (!readCharacteristic(keys.get(index))) {
+                    fail("readCharacteristic error: " + keys.get(index).getCharacterUUID(), "");
+                }
+            }
+
+            @Override
+            void onFail(String info, String code) {
+                callback.onError(info, code);
             }
         });
     }
 
-    public void writeDescriptor(final String serviceUUID, final String characterUUID, final String descriptorUUID, final byte[] bytes,final OnActionCallback callback){
-        serialWorkManager.joinWork(serialWorkManager.new WorkRunnable() {
+    public Operation writeDescriptor(final String serviceUUID, final String characterUUID, final String descriptorUUID, final byte[] bytes,final OnActionCallback callback){
+        return writeDescriptor(DescriptorRef.of(serviceUUID, characterUUID, descriptorUUID), bytes, callback);
+    }
+
+    public Operation writeDescriptor(final DescriptorRef ref, final byte[] bytes,final OnActionCallback callback){
+        return writeDescriptor(ref, bytes, Priority.INTERACTIVE, callback);
+    }
+
+    public Operation writeDescriptor(final DescriptorRef ref, final byte[] bytes, final Priority priority, final OnActionCallback callback){
+        return writeDescriptor(ref, bytes, priority, operationTimeout, callback);
+    }
+
+    public Operation writeDescriptor(final DescriptorRef ref, final byte[] bytes, final Priority priority, final int timeout, final OnActionCallback callback){
+        return join(timeout, priority, new ChannelWork(MetricsSink.Op.WRITE_DESCRIPTOR, "writeDescriptor", Collections.singletonList(ref)) {
             @Override
             public void run() {
-                if (writeDescriptor(serviceUUID, characterUUID, descriptorUUID, bytes)) {
-                    gattCallbackDispatcher.registerGattCallback(new BluetoothGattCallback() {
+                if (writeDescriptor(ref, bytes)) {
+                    register(new BluetoothGattCallback() {
                         @Override
                         public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
                             super.onDescriptorWrite(gatt, descriptor, status);
-                            gattCallbackDispatcher.unregisterGattCallback(this);
                             if (status == BluetoothGatt.GATT_SUCCESS) {
-                                callback.onSuccess();
+                                if (complete()){
+                                    callback.onSuccess();
+                                }
                             } else {
-                                callback.onError("onDescriptorWrite fail", String.valueOf(status));
+                                fail("onDescriptorWrite fail", String.valueOf(status));
                             }
-                            leave();
                         }
                     });
                 } else {
-                    callback.onError("writeDescriptor error", "");
-                    leave();
+                    fail("writeDescriptor error", "");
                 }
             }
+
+            @Override
+            void onFail(String info, String code) {
+                callback.onError(info, code);
+            }
         });
     }
 
-    public void readDescriptor(final String serviceUUID, final String characterUUID, final String descriptorUUID, final OnReadCallback callback){
-        serialWorkManager.joinWork(serialWorkManager.new WorkRunnable() {
+    public Operation readDescriptor(final String serviceUUID, final String characterUUID, final String descriptorUUID, final OnReadCallback callback){
+        return readDescriptor(DescriptorRef.of(serviceUUID, characterUUID, descriptorUUID), callback);
+    }
+
+    public Operation readDescriptor(final DescriptorRef ref, final OnReadCallback callback){
+        return readDescriptor(ref, Priority.INTERACTIVE, callback);
+    }
+
+    public Operation readDescriptor(final DescriptorRef ref, final Priority priority, final OnReadCallback callback){
+        return readDescriptor(ref, priority, operationTimeout, callback);
+    }
+
+    public Operation readDescriptor(final DescriptorRef ref, final Priority priority, final int timeout, final OnReadCallback onReadCallback){
+        final OnReadCallback callback = readCache.read(ref, onReadCallback);
+        if (callback == null){
+            return new Operation(null);
+        }
+        return join(timeout, priority, new ChannelWork(MetricsSink.Op.READ_DESCRIPTOR, "readDescriptor") {
             @Override
             public void run() {
-                if (readDescriptor(serviceUUID, characterUUID, descriptorUUID)) {
-                    gattCallbackDispatcher.registerGattCallback(new BluetoothGattCallback() {
+                if (readDescriptor(ref)) {
+                    register(new BluetoothGattCallback() {
                         @Override
                         public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
                             super.onDescriptorRead(gatt, descriptor, status);
-                            gattCallbackDispatcher.unregisterGattCallback(this);
                             if (status == BluetoothGatt.GATT_SUCCESS) {
-                                callback.onRead(descriptor.getValue());
+                                if (complete()){
+                                    callback.onRead(descriptor.getValue());
+                                }
                             } else {
-                                callback.onError("onDescriptorRead fail", String.valueOf(status));
+                                fail("onDescriptorRead fail", String.valueOf(status));
                             }
-                            leave();
                         }
                     });
                 } else {
-                    callback.onError("readDescriptor error", "");
-                    leave();
+                    fail("readDescriptor error", "");
                 }
             }
+
+            @Override
+            void onFail(String info, String code) {
+                callback.onError(info, code);
+            }
         });
     }
 
-    private final Map<String,BluetoothGattCallback> notifyCallbackMap = new HashMap<>();
+    private final Map<CharacteristicRef,BluetoothGattCallback> notifyCallbackMap = new HashMap<>();
 
-    public void startNotify(final String serviceUUID, final String characterUUID, final NotifyType notifyType, final OnActionCallback callback, final OnReceiveListener onReceiveListener){
-        serialWorkManager.joinWork(serialWorkManager.new WorkRunnable() {
+    public Operation startNotify(final String serviceUUID, final String characterUUID, final NotifyType notifyType, final OnActionCallback callback, final OnReceiveListener onReceiveListener){
+        return startNotify(CharacteristicRef.of(serviceUUID, characterUUID), notifyType, callback, onReceiveListener);
+    }
+
+    public Operation startNotify(final CharacteristicRef ref, final NotifyType notifyType, final OnActionCallback callback, final OnReceiveListener onReceiveListener){
+        return startNotify(ref, notifyType, Priority.INTERACTIVE, callback, onReceiveListener);
+    }
+
+    public Operation startNotify(final CharacteristicRef ref, final NotifyType notifyType, final Priority priority, final OnActionCallback callback, final OnReceiveListener onReceiveListener){
+        return startNotify(ref, notifyType, priority, operationTimeout, callback, onReceiveListener);
+    }
+
+    public Operation startNotify(final CharacteristicRef ref, final NotifyType notifyType, final Priority priority, final int timeout, final OnActionCallback callback, final OnReceiveListener onReceiveListener){
+        return startNotify(ref, notifyType, priority, timeout, callback, createNotifyGattCallback(ref.getServiceUUID(), onReceiveListener));
+    }
+
+    //长时间高频的通知流使用，数据放在通道缓冲池借出的缓冲里交付，减少GC。
+    //单独命名，避免和startNotify的OnReceiveListener版本在lambda调用时产生歧义
+    public Operation startNotifyLeased(final CharacteristicRef ref, final NotifyType notifyType, final OnActionCallback callback, final OnLeasedReceiveListener onLeasedReceiveListener){
+        return startNotifyLeased(ref, notifyType, Priority.INTERACTIVE, callback, onLeasedReceiveListener);
+    }
+
+    public Operation startNotifyLeased(final CharacteristicRef ref, final NotifyType notifyType, final Priority priority, final OnActionCallback callback, final OnLeasedReceiveListener onLeasedReceiveListener){
+        return startNotifyLeased(ref, notifyType, priority, operationTimeout, callback, onLeasedReceiveListener);
+    }
+
+    public Operation startNotifyLeased(final CharacteristicRef ref, final NotifyType notifyType, final Priority priority, final int timeout, final OnActionCallback callback, final OnLeasedReceiveListener onLeasedReceiveListener){
+        return startNotify(ref, notifyType, priority, timeout, callback, createLeasedNotifyGattCallback(ref.getServiceUUID(), onLeasedReceiveListener));
+    }
+
+    private Operation startNotify(final CharacteristicRef ref, final NotifyType notifyType, final Priority priority, final int timeout, final OnActionCallback callback, final BluetoothGattCallback notifyGattCallback){
+        return join(timeout, priority, new ChannelWork(MetricsSink.Op.START_NOTIFY, "startNotify") {
             @Override
             public void run() {
-                if (setCharacteristicNotificationEnable(serviceUUID, characterUUID,notifyType)) {
-                    gattCallbackDispatcher.registerGattCallback(new BluetoothGattCallback() {
+                if (setCharacteristicNotificationEnable(ref,notifyType)) {
+                    register(new BluetoothGattCallback() {
                         @Override
                         public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
                             super.onDescriptorWrite(gatt, descriptor, status);
-                            gattCallbackDispatcher.unregisterGattCallback(this);
-                            if (status == BluetoothGatt.GATT_SUCCESS) {
-                                if (Arrays.equals(descriptor.getValue(), BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE) || Arrays.equals(descriptor.getValue(), BluetoothGattDescriptor.ENABLE_INDICATION_VALUE)){
-                                    String key = getNotifyKey(serviceUUID,characterUUID);
-                                    BluetoothGattCallback gattCallback = createNotifyGattCallback(onReceiveListener);
-                                    gattCallbackDispatcher.registerGattCallback(gattCallback);
-                                    notifyCallbackMap.put(key,gattCallback);
-                                    callback.onSuccess();
+                            if (status != BluetoothGatt.GATT_SUCCESS) {
+                                fail("onDescriptorWrite fail", String.valueOf(status));
+                                return;
+                            }
+                            if (!complete()){
+                                return;
+                            }
+                            if (Arrays.equals(descriptor.getValue(), BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE) || Arrays.equals(descriptor.getValue(), BluetoothGattDescriptor.ENABLE_INDICATION_VALUE)){
+                                gattCallbackDispatcher.registerNotifyCallback(ref.getCharacterUUID(), notifyGattCallback);
+                                BluetoothGattCallback oldCallback = notifyCallbackMap.put(ref,notifyGattCallback);
+                                if (oldCallback != null){
+                                    gattCallbackDispatcher.unregisterNotifyCallback(ref.getCharacterUUID(), oldCallback);
                                 }
+                                callback.onSuccess();
                             } else {
-                                callback.onError("onDescriptorWrite fail", String.valueOf(status));
+                                //回调里的描述符值不是本次写入的值，比如被其它写入覆盖
+                                callback.onError("onDescriptorWrite value mismatch", "");
                             }
-                            leave();
                         }
                     });
                 } else {
-                    callback.onError("setCharacteristicNotification error", "");
-                    leave();
+                    fail("setCharacteristicNotification error", "");
                 }
             }
+
+            @Override
+            void onFail(String info, String code) {
+                callback.onError(info, code);
+            }
         });
     }
 
-    public void stopNotify(final String serviceUUID, final String characterUUID,final OnActionCallback callback){
-        serialWorkManager.joinWork(serialWorkManager.new WorkRunnable() {
+    public Operation stopNotify(final String serviceUUID, final String characterUUID,final OnActionCallback callback){
+        return stopNotify(CharacteristicRef.of(serviceUUID, characterUUID), callback);
+    }
+
+    public Operation stopNotify(final CharacteristicRef ref,final OnActionCallback callback){
+        return stopNotify(ref, Priority.INTERACTIVE, callback);
+    }
+
+    public Operation stopNotify(final CharacteristicRef ref, final Priority priority, final OnActionCallback callback){
+        return stopNotify(ref, priority, operationTimeout, callback);
+    }
+
+    public Operation stopNotify(final CharacteristicRef ref, final Priority priority, final int timeout, final OnActionCallback callback){
+        return join(timeout, priority, new ChannelWork(MetricsSink.Op.STOP_NOTIFY, "stopNotify") {
             @Override
             public void run() {
-                if (setCharacteristicNotificationDisable(serviceUUID, characterUUID)) {
-                    gattCallbackDispatcher.registerGattCallback(new BluetoothGattCallback() {
+                if (setCharacteristicNotificationDisable(ref)) {
+                    register(new BluetoothGattCallback() {
                         @Override
                         public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
                             super.onDescriptorWrite(gatt, descriptor, status);
-                            gattCallbackDispatcher.unregisterGattCallback(this);
-                            if (status == BluetoothGatt.GATT_SUCCESS) {
-                                if (Arrays.equals(descriptor.getValue(), BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE)){
-                                    String key = getNotifyKey(serviceUUID,characterUUID);
-                                    if (notifyCallbackMap.containsKey(key)){
-                                        gattCallbackDispatcher.unregisterGattCallback(notifyCallbackMap.get(key));
-                                    }
-                                    callback.onSuccess();
+                            if (status != BluetoothGatt.GATT_SUCCESS) {
+                                fail("onDescriptorWrite fail", String.valueOf(status));
+                                return;
+                            }
+                            if (!complete()){
+                                return;
+                            }
+                            if (Arrays.equals(descriptor.getValue(), BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE)){
+                                BluetoothGattCallback oldCallback = notifyCallbackMap.remove(ref);
+                                if (oldCallback != null){
+                                    gattCallbackDispatcher.unregisterNotifyCallback(ref.getCharacterUUID(), oldCallback);
                                 }
+                                callback.onSuccess();
                             } else {
-                                callback.onError("onDescriptorWrite fail", String.valueOf(status));
+                                callback.onError("onDescriptorWrite value mismatch", "");
                             }
-                            leave();
                         }
                     });
                 } else {
-                    callback.onError("setCharacteristicNotification error", "");
-                    leave();
+                    fail("setCharacteristicNotification error", "");
                 }
             }
+
+            @Override
+            void onFail(String info, String code) {
+                callback.onError(info, code);
+            }
         });
     }
 
+    //加入串行队列，通道已经关闭时直接回调失败
+    private Operation join(int timeout, Priority priority, ChannelWork work){
+        work.onQueued();
+        if (!serialWorkManager.joinWork(timeout, priority, work)){
+            work.finishWrites();
+            work.onFail(work.name + " error", "");
+        }
+        return new Operation(work);
+    }
+
+    //以下为返回GattFuture的异步接口，与回调接口共用同一个串行队列，返回的future可以cancel
+
+    public GattFuture<Void> writeCharacteristicAsync(final CharacteristicRef ref, final byte[] bytes){
+        return writeCharacteristicAsync(ref, bytes, Priority.INTERACTIVE);
+    }
+
+    public GattFuture<Void> writeCharacteristicAsync(final CharacteristicRef ref, final byte[] bytes, final Priority priority){
+        GattFuture<Void> future = new GattFuture<>();
+        future.setOperation(writeCharacteristic(ref, bytes, priority, future.toActionCallback(null)));
+        return future;
+    }
+
+    public GattFuture<byte[]> readCharacteristicAsync(final CharacteristicRef ref){
+        return readCharacteristicAsync(ref, Priority.INTERACTIVE);
+    }
+
+    public GattFuture<byte[]> readCharacteristicAsync(final CharacteristicRef ref, final Priority priority){
+        GattFuture<byte[]> future = new GattFuture<>();
+        future.setOperation(readCharacteristic(ref, priority, GattFuture.toReadCallback(future)));
+        return future;
+    }
+
+    public GattFuture<Void> writeDescriptorAsync(final DescriptorRef ref, final byte[] bytes){
+        GattFuture<Void> future = new GattFuture<>();
+        future.setOperation(writeDescriptor(ref, bytes, Priority.INTERACTIVE, future.toActionCallback(null)));
+        return future;
+    }
+
+    public GattFuture<byte[]> readDescriptorAsync(final DescriptorRef ref){
+        GattFuture<byte[]> future = new GattFuture<>();
+        future.setOperation(readDescriptor(ref, Priority.INTERACTIVE, GattFuture.toReadCallback(future)));
+        return future;
+    }
+
+    public GattFuture<Void> startNotifyAsync(final CharacteristicRef ref, final NotifyType notifyType, final OnReceiveListener onReceiveListener){
+        GattFuture<Void> future = new GattFuture<>();
+        future.setOperation(startNotify(ref, notifyType, Priority.INTERACTIVE, future.toActionCallback(null), onReceiveListener));
+        return future;
+    }
+
+    public GattFuture<Void> stopNotifyAsync(final CharacteristicRef ref){
+        GattFuture<Void> future = new GattFuture<>();
+        future.setOperation(stopNotify(ref, Priority.INTERACTIVE, future.toActionCallback(null)));
+        return future;
+    }
+
+    public GattFuture<Void> requestMtuAsync(final int mtu){
+        GattFuture<Void> future = new GattFuture<>();
+        future.setOperation(requestMtu(mtu, Priority.INTERACTIVE, future.toActionCallback(null)));
+        return future;
+    }
+
+    public GattFuture<Map<CharacteristicRef, byte[]>> readManyAsync(final List<CharacteristicRef> refs){
+        final GattFuture<Map<CharacteristicRef, byte[]>> future = new GattFuture<>();
+        future.setOperation(readMany(refs, Priority.INTERACTIVE, new OnReadManyCallback() {
+            @Override
+            public void onRead(Map<CharacteristicRef, byte[]> values) {
+                future.setSuccess(values);
+            }
 
-    private BluetoothGattCallback createNotifyGattCallback(final OnReceiveListener listener){
+            @Override
+            public void onError(String info, String code) {
+                future.setError(info, code);
+            }
+        }));
+        return future;
+    }
+
+    public GattFuture<byte[]> writeAndAwaitNotify(final CharacteristicRef writeRef, final byte[] bytes, final CharacteristicRef notifyRef, final ResponseMatcher matcher, final int timeout){
+        return writeAndAwaitNotify(writeRef, bytes, notifyRef, matcher, timeout, Priority.INTERACTIVE);
+    }
+
+    //请求/响应：写入bytes后等待notifyRef上第一条matcher匹配的通知作为结果，matcher为null时取第一条通知。
+    //写入和等待在同一个串行任务中完成，期间不会插入其它操作。notifyRef需要先startNotify。
+    //返回的future可以cancel，放弃等待并释放串行队列
+    public GattFuture<byte[]> writeAndAwaitNotify(final CharacteristicRef writeRef, final byte[] bytes, final CharacteristicRef notifyRef, final ResponseMatcher matcher, final int timeout, final Priority priority){
+        final GattFuture<byte[]> future = new GattFuture<>();
+        future.setOperation(join(timeout, priority, new ChannelWork(MetricsSink.Op.WRITE_CHARACTERISTIC, "writeAndAwaitNotify", Collections.singletonList(writeRef)){
+
+            private int offset;
+
+            private int fragmentSize;
+
+            private boolean written;
+
+            private byte[] response;
+
+            //写入回调和响应通知用同一个回调，先注册再写入，响应可能比写入回调先到
+            private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+                @Override
+                public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                    super.onCharacteristicWrite(gatt, characteristic, status);
+                    if (status != BluetoothGatt.GATT_SUCCESS){
+                        fail("onCharacteristicWrite fail", String.valueOf(status));
+                        return;
+                    }
+                    offset += fragmentSize;
+                    if (offset < bytes.length){
+                        writeNextFragment();
+                        return;
+                    }
+                    onWritten();
+                }
+
+                @Override
+                public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                    onCharacteristicChanged(gatt, characteristic, characteristic.getValue());
+                }
+
+                @SuppressLint("NewApi")
+                @Override
+                public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] value) {
+                    if (notifyRef.getCharacterUUID().equals(characteristic.getUuid())
+                            && notifyRef.getServiceUUID().equals(characteristic.getService().getUuid())
+                            && (matcher == null || matcher.matches(bytes, value))){
+                        onResponse(value);
+                    }
+                }
+            };
+
+            @Override
+            public void run() {
+                register(gattCallback);
+                writeNextFragment();
+            }
+
+            private void writeNextFragment(){
+                fragmentSize = Math.min(bytes.length - offset, getMaxPayloadSize());
+                byte[] fragment = fragmentSize == bytes.length ? bytes : Arrays.copyOfRange(bytes, offset, offset + fragmentSize);
+                if (!writeCharacteristic(writeRef, fragment)) {
+                    fail("writeCharacteristic error", "");
+                }
+            }
+
+            private void onWritten(){
+                synchronized (this){
+                    written = true;
+                }
+                tryComplete();
+            }
+
+            private void onResponse(byte[] value){
+                synchronized (this){
+                    if (response != null){
+                        return;
+                    }
+                    response = value;
+                }
+                tryComplete();
+            }
+
+            //写入确认和响应都到了才释放串行队列
+            private void tryComplete(){
+                byte[] result;
+                synchronized (this){
+                    if (!written || response == null){
+                        return;
+                    }
+                    result = response;
+                }
+                if (complete()){
+                    future.setSuccess(result);
+                }
+            }
+
+            @Override
+            void onFail(String info, String code) {
+                future.setError(info, code);
+            }
+        }));
+        return future;
+    }
+
+    //分发器已经按特征值UUID过滤，这里只需要再区分不同服务下的同名特征值。
+    //API 33以上直接使用回调参数里的value，不再经过characteristic.getValue()
+    private BluetoothGattCallback createNotifyGattCallback(final UUID serviceUUID, final OnReceiveListener listener){
         return new BluetoothGattCallback() {
             @Override
             public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-                super.onCharacteristicChanged(gatt, characteristic);
-                listener.onReceive(characteristic.getValue());
+                onCharacteristicChanged(gatt, characteristic, characteristic.getValue());
+            }
+
+            @SuppressLint("NewApi")
+            @Override
+            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] value) {
+                if (serviceUUID.equals(characteristic.getService().getUuid())){
+                    metricsSink.recordNotification(device, characteristic.getUuid(), value == null ? 0 : value.length);
+                    trafficController.onNotification();
+                    listener.onReceive(value);
+                }
             }
         };
     }
 
-    private String getNotifyKey(final String serviceUUID, final String characterUUID){
-        return "/"+serviceUUID+"/"+characterUUID;
+    private BluetoothGattCallback createLeasedNotifyGattCallback(final UUID serviceUUID, final OnLeasedReceiveListener listener){
+        return new BluetoothGattCallback() {
+            @Override
+            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                onCharacteristicChanged(gatt, characteristic, characteristic.getValue());
+            }
+
+            @SuppressLint("NewApi")
+            @Override
+            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] value) {
+                if (serviceUUID.equals(characteristic.getService().getUuid())){
+                    metricsSink.recordNotification(device, characteristic.getUuid(), value == null ? 0 : value.length);
+                    trafficController.onNotification();
+                    listener.onReceive(bufferPool.acquire(value));
+                }
+            }
+        };
     }
 
-    private boolean writeCharacteristic(String serviceUUID,String characterUUID,byte[] bytes){
-        try {
-            BluetoothGattCharacteristic characteristic = bluetoothGatt
-                    .getService(UUID.fromString(serviceUUID))
-                    .getCharacteristic(UUID.fromString(characterUUID));
-            return characteristic.setValue(bytes) && bluetoothGatt.writeCharacteristic(characteristic);
-        } catch (NullPointerException e){
-            return false;
+    private Map<Object, Object> buildHandleCache(){
+        Map<Object, Object> cache = new HashMap<>();
+        List<BluetoothGattService> services = bluetoothGatt.getServices();
+        if (services == null){
+            return cache;
         }
+        for (BluetoothGattService service : services){
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()){
+                CharacteristicRef ref = new CharacteristicRef(service.getUuid(), characteristic.getUuid());
+                //同一服务下有重复UUID时与getCharacteristic(UUID)保持一致，取第一个
+                if (cache.containsKey(ref)){
+                    continue;
+                }
+                cache.put(ref, characteristic);
+                for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()){
+                    cache.put(new DescriptorRef(ref, descriptor.getUuid()), descriptor);
+                }
+            }
+        }
+        return cache;
     }
 
-    private boolean writeDescriptor(String serviceUUID,String characterUUID,String descriptorUUID,byte[] bytes){
-        try {
-            BluetoothGattDescriptor descriptor = bluetoothGatt
-                    .getService(UUID.fromString(serviceUUID))
-                    .getCharacteristic(UUID.fromString(characterUUID))
-                    .getDescriptor(UUID.fromString(descriptorUUID));
-            return descriptor.setValue(bytes) && bluetoothGatt.writeDescriptor(descriptor);
-        } catch (NullPointerException e){
-            return false;
+    private Map<Object, Object> getHandleCache(){
+        Map<Object, Object> cache = handleCache;
+        if (cache == null){
+            cache = handleCache = buildHandleCache();
         }
+        return cache;
     }
 
-    private boolean readCharacteristic(String serviceUUID,String characterUUID){
-        try {
-            BluetoothGattCharacteristic characteristic = bluetoothGatt
-                    .getService(UUID.fromString(serviceUUID))
-                    .getCharacteristic(UUID.fromString(characterUUID));
-            return bluetoothGatt.readCharacteristic(characteristic);
-        } catch (NullPointerException e){
-            return false;
-        }
+    BluetoothGattCharacteristic findCharacteristic(CharacteristicRef ref){
+        return (BluetoothGattCharacteristic) getHandleCache().get(ref);
     }
 
-    private boolean readDescriptor(String serviceUUID,String characterUUID,String descriptorUUID){
-        try {
-            BluetoothGattDescriptor descriptor = bluetoothGatt
-                    .getService(UUID.fromString(serviceUUID))
-                    .getCharacteristic(UUID.fromString(characterUUID))
-                    .getDescriptor(UUID.fromString(descriptorUUID));
-            return bluetoothGatt.readDescriptor(descriptor);
-        } catch (NullPointerException e){
-            return false;
-        }
+    BluetoothGattDescriptor findDescriptor(DescriptorRef ref){
+        return (BluetoothGattDescriptor) getHandleCache().get(ref);
     }
 
-    private boolean setCharacteristicNotificationEnable(String serviceUUID,String characterUUID,NotifyType notifyType){
-        try {
-            BluetoothGattCharacteristic characteristic = bluetoothGatt
-                    .getService(UUID.fromString(serviceUUID))
-                    .getCharacteristic(UUID.fromString(characterUUID));
-            //标准预设通知的Descriptor
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString("00002902-0000-1000-8000-00805f9b34fb"));
-            //
-            return bluetoothGatt.setCharacteristicNotification(characteristic, true)
-                    && descriptor.setValue((notifyType == NotifyType.Indication?BluetoothGattDescriptor.ENABLE_INDICATION_VALUE:BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE))
-                    && bluetoothGatt.writeDescriptor(descriptor);
-        } catch (NullPointerException e){
-            return false;
+    private boolean writeCharacteristic(CharacteristicRef ref,byte[] bytes){
+        BluetoothGattCharacteristic characteristic = findCharacteristic(ref);
+        return characteristic != null && characteristic.setValue(bytes) && bluetoothGatt.writeCharacteristic(characteristic);
+    }
+
+    private boolean writeDescriptor(DescriptorRef ref,byte[] bytes){
+        BluetoothGattDescriptor descriptor = findDescriptor(ref);
+        return descriptor != null && descriptor.setValue(bytes) && bluetoothGatt.writeDescriptor(descriptor);
+    }
+
+    private boolean readCharacteristic(CharacteristicRef ref){
+        BluetoothGattCharacteristic characteristic = findCharacteristic(ref);
+        return characteristic != null && bluetoothGatt.readCharacteristic(characteristic);
+    }
+
+    private boolean readDescriptor(DescriptorRef ref){
+        BluetoothGattDescriptor descriptor = findDescriptor(ref);
+        return descriptor != null && bluetoothGatt.readDescriptor(descriptor);
+    }
+
+    private boolean setCharacteristicNotificationEnable(CharacteristicRef ref,NotifyType notifyType){
+        BluetoothGattCharacteristic characteristic = findCharacteristic(ref);
+        BluetoothGattDescriptor descriptor = findDescriptor(new DescriptorRef(ref, CLIENT_CHARACTERISTIC_CONFIG));
+        return characteristic != null && descriptor != null
+                && bluetoothGatt.setCharacteristicNotification(characteristic, true)
+                && descriptor.setValue((notifyType == NotifyType.Indication?BluetoothGattDescriptor.ENABLE_INDICATION_VALUE:BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE))
+                && bluetoothGatt.writeDescriptor(descriptor);
+    }
+
+    private boolean setCharacteristicNotificationDisable(CharacteristicRef ref){
+        BluetoothGattCharacteristic characteristic = findCharacteristic(ref);
+        BluetoothGattDescriptor descriptor = findDescriptor(new DescriptorRef(ref, CLIENT_CHARACTERISTIC_CONFIG));
+        return characteristic != null && descriptor != null
+                && bluetoothGatt.setCharacteristicNotification(characteristic, false)
+                && descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE)
+                && bluetoothGatt.writeDescriptor(descriptor);
+    }
+
+    //通道操作的公共部分：结果、超时和取消三者只有先到的一个会回调，并且都会注销该操作的GATT回调
+    private abstract class ChannelWork extends SerialWorkManager.WorkRunnable {
+
+        private final String name;
+
+        private volatile BluetoothGattCallback gattCallback;
+
+        //会写入的句柄，入队时通知读缓存，结束时（无论结果）再通知一次
+        private final List<?> writeKeys;
+
+        private final AtomicBoolean writesFinished = new AtomicBoolean();
+
+        ChannelWork(MetricsSink.Op op, String name) {
+            this(op, name, Collections.emptyList());
+        }
+
+        ChannelWork(MetricsSink.Op op, String name, List<?> writeKeys) {
+            serialWorkManager.super(op);
+            this.name = name;
+            this.writeKeys = writeKeys;
+        }
+
+        void onQueued(){
+            for (Object key : writeKeys){
+                readCache.onWriteQueued(key);
+            }
+        }
+
+        void finishWrites(){
+            if (!writeKeys.isEmpty() && writesFinished.compareAndSet(false, true)){
+                for (Object key : writeKeys){
+                    readCache.onWriteFinished(key);
+                }
+            }
+        }
+
+        abstract void onFail(String info, String code);
+
+        void register(BluetoothGattCallback gattCallback){
+            this.gattCallback = gattCallback;
+            gattCallbackDispatcher.registerGattCallback(gattCallback);
+            //注册前已经被取消
+            if (!serialWorkManager.containWork(this)){
+                unregister();
+            }
+        }
+
+        //结果到达时调用，返回false说明已经超时或被取消，结果丢弃
+        boolean complete(){
+            unregister();
+            return leave();
+        }
+
+        void fail(String info, String code){
+            if (complete()){
+                onFail(info, code);
+            }
+        }
+
+        @Override
+        public void onTimeout() {
+            unregister();
+            onFail(name + " timeout", CODE_TIMEOUT);
+        }
+
+        @Override
+        public void onClose() {
+            unregister();
+            onFail(name + " disconnected", CODE_DISCONNECTED);
+        }
+
+        @Override
+        public void onRejected() {
+            unregister();
+            onFail(name + " rejected", "");
+        }
+
+        boolean cancel(){
+            if (!leave()){
+                return false;
+            }
+            unregister();
+            onFail(name + " cancelled", CODE_CANCELLED);
+            return true;
+        }
+
+        boolean isPending(){
+            return serialWorkManager.containWork(this);
+        }
+
+        private void unregister(){
+            BluetoothGattCallback gattCallback = this.gattCallback;
+            if (gattCallback != null){
+                gattCallbackDispatcher.unregisterGattCallback(gattCallback);
+            }
+            finishWrites();
         }
     }
 
-    private boolean setCharacteristicNotificationDisable(String serviceUUID,String characterUUID){
-        try {
-            BluetoothGattCharacteristic characteristic = bluetoothGatt
-                    .getService(UUID.fromString(serviceUUID))
-                    .getCharacteristic(UUID.fromString(characterUUID));
-            //标准预设通知的Descriptor
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString("00002902-0000-1000-8000-00805f9b34fb"));
-            //
-            return bluetoothGatt.setCharacteristicNotification(characteristic, false)
-                    && descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE)
-                    && bluetoothGatt.writeDescriptor(descriptor);
-        } catch (NullPointerException e){
-            return false;
+    //操作句柄，可以取消排队中或者进行中的操作
+    public static class Operation {
+
+        private final ChannelWork work;
+
+        Operation(ChannelWork work) {
+            this.work = work;
+        }
+
+        //取消成功时以CODE_CANCELLED回调onError，已经完成、超时或取消过的返回false。
+        //进行中的操作取消后立即释放串行队列，但已经发出的GATT请求无法撤回
+        public boolean cancel(){
+            return work != null && work.cancel();
+        }
+
+        //排队中或者进行中
+        public boolean isPending(){
+            return work != null && work.isPending();
         }
     }
 
@@ -335,6 +1257,16 @@ public class BluetoothChannel {
         void onReceive(byte[] bytes);
     }
 
+    //buffer用完后必须调用release()归还到通道的缓冲池
+    public interface OnLeasedReceiveListener {
+        void onReceive(LeasedBuffer buffer);
+    }
+
+    //判断一条通知是否是request的响应
+    public interface ResponseMatcher {
+        boolean matches(byte[] request, byte[] response);
+    }
+
     public interface OnActionCallback {
         void onSuccess();
         void onError(String info,String code);
@@ -345,6 +1277,11 @@ public class BluetoothChannel {
         void onError(String info,String code);
     }
 
+    public interface OnReadManyCallback {
+        void onRead(Map<CharacteristicRef, byte[]> values);
+        void onError(String info,String code);
+    }
+
     public interface OnDisconnectedListener {
         void onDisconnected();
     }
@@ -3,20 +3,23 @@ package com.xq.bluetoothcom;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Message;
-import android.util.Pair;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 public class BluetoothCom {
 
@@ -25,13 +28,104 @@ public class BluetoothCom {
 
     private final Context context;
 
-    private final SerialWorkManager connectWorkManager = new SerialWorkManager();
+    //ATT协议允许的最大MTU
+    private static final int MAX_MTU = 517;
+
+    //部分设备不会回调onMtuChanged，超时后按默认MTU继续
+    private static final int MTU_TIME_OUT = 3*1000;
+
+    //作为discoverDelay传入时，按每个设备学到的最短可靠延迟发现服务，失败时加长延迟重试
+    public static final int ADAPTIVE_DISCOVER_DELAY = -1;
+
+    //自适应模式下一次连接内发现服务失败后最多重试的次数
+    private static final int MAX_DISCOVER_RETRY = 2;
+
+    //调用discoverServices后等待onServicesDiscovered的最长时间
+    private static final int DISCOVER_TIME_OUT = 10*1000;
+
+    //连接调度、重连、发现服务以及通道的串行队列都在这里执行
+    private final Executor executor;
+
+    private final ConnectScheduler connectScheduler;
+
+    private volatile int connectTimeout = CONNECT_TIME_OUT;
+
+    private volatile RetryPolicy retryPolicy = new ExponentialBackoffRetryPolicy();
+
+    private volatile MetricsSink metricsSink = MetricsSink.NONE;
+
+    private volatile GattLayoutCache gattLayoutCache;
+
+    //每个设备上一次协商成功的MTU
+    private final Map<String, Integer> mtuMap = new HashMap<>();
+
+    private DiscoverDelayTuner discoverDelayTuner;
+
+    private volatile StreamConnector streamConnector = StreamConnector.L2CAP;
+
+    //L2CAP的connect是阻塞的，放在这里执行
+    private ExecutorService ioExecutor;
 
     public BluetoothCom(Context context) {
+        this(context, HandlerExecutor.MAIN);
+    }
+
+    //传入HandlerExecutor时，API 26以上的蓝牙回调也会投递到它的Looper上
+    public BluetoothCom(Context context, Executor executor) {
         this.context = context;
+        this.executor = executor;
+        this.connectScheduler = new ConnectScheduler(executor);
+    }
+
+    private synchronized DiscoverDelayTuner getDiscoverDelayTuner(){
+        if (discoverDelayTuner == null){
+            discoverDelayTuner = new DiscoverDelayTuner(context.getSharedPreferences("BluetoothCom_discover_delay", Context.MODE_PRIVATE));
+        }
+        return discoverDelayTuner;
+    }
+
+    //同时进行连接尝试的设备数，超过的按先后顺序排队
+    public void setMaxConcurrentConnect(int maxConcurrent){
+        connectScheduler.setMaxConcurrent(maxConcurrent);
     }
 
-    private final Map<String, AtomicReference<Record>> recordMap = new HashMap<>();
+    //单次连接尝试的超时，超时后关闭本次gatt并按重试次数重连
+    public void setConnectTimeout(int connectTimeout){
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy){
+        this.retryPolicy = retryPolicy;
+    }
+
+    //之后建立的连接和通道都会上报到这个sink，默认不记录
+    public void setMetricsSink(MetricsSink metricsSink){
+        this.metricsSink = metricsSink;
+    }
+
+    //设置后，布局已缓存的设备连接成功后不再等待discoverDelay，直接发现服务
+    public void setGattLayoutCache(GattLayoutCache gattLayoutCache){
+        this.gattLayoutCache = gattLayoutCache;
+    }
+
+    //替换流连接的实现，测试时使用
+    public void setStreamConnector(StreamConnector streamConnector){
+        this.streamConnector = streamConnector;
+    }
+
+    private synchronized ExecutorService getIoExecutor(){
+        if (ioExecutor == null){
+            ioExecutor = Executors.newCachedThreadPool();
+        }
+        return ioExecutor;
+    }
+
+    //取值为android.util.Log的级别，通知相关日志为VERBOSE
+    public static void setLogLevel(int level){
+        GattCallbackDispatcher.setLogLevel(level);
+    }
+
+    private final DeviceRegistry<Record, OnConnectListener> registry = new DeviceRegistry<>();
 
     public void connectWithoutSearch(String mac, final int discoverDelay, final int retryCount, final OnConnectListener onConnectListener){
         connect(BluetoothAdapter.getDefaultAdapter().getRemoteDevice(mac),discoverDelay,retryCount,onConnectListener);
@@ -40,103 +134,269 @@ public class BluetoothCom {
     public void connect(final BluetoothDevice bluetoothDevice , final int discoverDelay, final int retryCount, final OnConnectListener onConnectListener){
 
         final String device = bluetoothDevice.getAddress();
-
-        AtomicReference<Record> reference = new AtomicReference<>();
-        synchronized (recordMap){
-            recordMap.put(device,reference);
+        final RetryPolicy retryPolicy = this.retryPolicy;
+
+        if (!retryPolicy.allowConnect(device)){
+            //与正常的失败一样在executor上回调
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onConnectListener.onError("circuit open", "");
+                }
+            });
+            return;
         }
 
-        final Supplier<Boolean> containWithRemove = new Supplier<Boolean>() {
-            @Override
-            public Boolean get() {
-                if (recordMap.containsKey(device)){
-                    synchronized (recordMap){
-                        if (recordMap.containsKey(device)){
-                            recordMap.remove(device);
-                            return true;
+        final DeviceRegistry.Entry<Record, OnConnectListener> entry = new DeviceRegistry.Entry<>(device);
+        DeviceRegistry.Entry<Record, OnConnectListener> existing = registry.register(entry);
+        if (existing != null){
+            //同一设备已经在连接或已连接，合并到已有的连接上，本次的参数不生效
+            if (!existing.addWaiter(onConnectListener)){
+                Record record = existing.get();
+                final BluetoothChannel bluetoothChannel = existing.getState() == DeviceState.READY && record != null ? record.bluetoothChannel : null;
+                //与新建的连接一样在executor上回调，不在调用线程上同步回调
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (bluetoothChannel != null){
+                            onConnectListener.onSuccess(bluetoothChannel);
+                        } else {
+                            onConnectListener.onError("device closing", "");
                         }
                     }
-                }
-                return false;
+                });
             }
-        };
-        connectRetry(reference, device, bluetoothDevice, discoverDelay, retryCount, 0, new OnConnectListener() {
+            return;
+        }
+        entry.addWaiter(onConnectListener);
+
+        connectRetry(entry, bluetoothDevice, discoverDelay, retryPolicy, retryCount, 0, Clock.SYSTEM.uptimeMillis(), new OnConnectListener() {
             @Override
             public void onSuccess(BluetoothChannel bluetoothChannel) {
-                onConnectListener.onSuccess(bluetoothChannel);
+                retryPolicy.onSuccess(device);
+                //交付前已经被disconnect或者连接已经断开，和disconnect竞争关闭权，通道只关闭一次
+                if (!entry.transition(DeviceState.DISCOVERING, DeviceState.READY)){
+                    if (entry.get().claimClose()){
+                        bluetoothChannel.close();
+                    }
+                    return;
+                }
+                for (OnConnectListener listener : entry.drainWaiters()){
+                    listener.onSuccess(bluetoothChannel);
+                }
             }
 
             @Override
             public void onError(String info, String code) {
-                if (containWithRemove.get()) {
-                    onConnectListener.onError(info, code);
+                if (registry.remove(entry)) {
+                    retryPolicy.onFailure(device);
+                    for (OnConnectListener listener : entry.drainWaiters()){
+                        listener.onError(info, code);
+                    }
                 }
             }
         }, new BluetoothChannel.OnCloseListener() {
             @Override
             public void onClose() {
-                containWithRemove.get();
+                entry.get().claimClose();
+                registry.remove(entry);
             }
         });
     }
 
-    private final Handler handler = new Handler(Looper.getMainLooper());
-    private void connectRetry(final AtomicReference<Record> reference, final String device, final BluetoothDevice bluetoothDevice, final int discoverDelay, final int maxCount, final int curCount, final OnConnectListener onConnectListener, final BluetoothChannel.OnCloseListener onCloseListener){
-        handler.postDelayed(new Runnable() {
+    public DeviceState getDeviceState(String mac){
+        return registry.getState(mac);
+    }
+
+    //延迟delay毫秒后在executor上执行
+    private TimerWheel.Timeout schedule(final Runnable runnable, long delay){
+        return TimerWheel.shared().newTimeout(new Runnable() {
             @Override
             public void run() {
-                if (recordMap.containsKey(device)){
-                    final long overTime = System.currentTimeMillis() + CONNECT_TIME_OUT;
-                    reallyConnect(reference, bluetoothDevice, discoverDelay, new OnConnectListener() {
-                        @Override
-                        public void onSuccess(BluetoothChannel bluetoothChannel) {
-                            onConnectListener.onSuccess(bluetoothChannel);
-                        }
+                executor.execute(runnable);
+            }
+        }, delay);
+    }
+
+    private void connectRetry(final DeviceRegistry.Entry<Record, OnConnectListener> entry, final BluetoothDevice bluetoothDevice, final int discoverDelay, final RetryPolicy retryPolicy, final int maxCount, final int curCount, final long startTime, final OnConnectListener onConnectListener, final BluetoothChannel.OnCloseListener onCloseListener){
+        //已经被disconnect的不再重连
+        if (entry.getState() != DeviceState.CLOSING){
+            final String device = entry.getDevice();
+            entry.transition(DeviceState.DISCOVERING, DeviceState.CONNECTING);
+            final long overTime = Clock.SYSTEM.uptimeMillis() + connectTimeout;
+            metricsSink.recordConnectAttempt(device, curCount);
+            reallyConnect(entry, bluetoothDevice, discoverDelay, new OnConnectListener() {
+                @Override
+                public void onSuccess(BluetoothChannel bluetoothChannel) {
+                    onConnectListener.onSuccess(bluetoothChannel);
+                }
 
+                @Override
+                public void onError(String info, String code) {
+                    boolean retried = scheduleRetry(retryPolicy, device, maxCount, curCount, startTime, Clock.SYSTEM.uptimeMillis() >= overTime, new Runnable() {
                         @Override
-                        public void onError(String info, String code) {
-                            if (curCount >= maxCount-1 || overTime >= System.currentTimeMillis()){
-                                onConnectListener.onError(info,code);
-                            } else {
-                                connectRetry(reference,device,bluetoothDevice,discoverDelay,maxCount,curCount+1,onConnectListener,onCloseListener);
-                            }
+                        public void run() {
+                            connectRetry(entry,bluetoothDevice,discoverDelay,retryPolicy,maxCount,curCount+1,startTime,onConnectListener,onCloseListener);
                         }
-                    },onCloseListener);
+                    });
+                    if (!retried){
+                        onConnectListener.onError(info,code);
+                    }
                 }
-            }
-        },curCount == 0? 0 : (int)(Math.pow(2,curCount%3))*1000L);
+            },onCloseListener);
+        }
     }
 
-    public void reallyConnect(AtomicReference<Record> reference, final BluetoothDevice bluetoothDevice, final int discoverDelay, final OnConnectListener onConnectListener, final BluetoothChannel.OnCloseListener onCloseListener){
+    //一次尝试失败后按重试次数和retryPolicy安排下一次尝试，返回false说明应该放弃。
+    //key是retryPolicy记录状态用的键；整个超时时间后才失败的（timedOut），设备大概率已经不在了，不再重连
+    private boolean scheduleRetry(RetryPolicy retryPolicy, String key, int maxCount, int curCount, long startTime, boolean timedOut, Runnable retry){
+        if (timedOut || curCount >= maxCount-1){
+            return false;
+        }
+        long delay = retryPolicy.nextDelay(key, curCount+1, Clock.SYSTEM.uptimeMillis() - startTime);
+        if (delay == RetryPolicy.STOP){
+            return false;
+        }
+        schedule(retry, delay);
+        return true;
+    }
+
+    private void reallyConnect(final DeviceRegistry.Entry<Record, OnConnectListener> entry, final BluetoothDevice bluetoothDevice, final int discoverDelay, final OnConnectListener onConnectListener, final BluetoothChannel.OnCloseListener onCloseListener){
 
+        final MetricsSink metricsSink = this.metricsSink;
+        final GattLayoutCache gattLayoutCache = this.gattLayoutCache;
         final Record record = new Record();
-        record.connectWorkRunnable = connectWorkManager.new WorkRunnable() {
+        record.connectAttempt = connectScheduler.new Attempt(bluetoothDevice.getAddress()) {
             @Override
             public void run() {
 
+                final long startTime = Clock.SYSTEM.uptimeMillis();
+
                 final GattCallbackDispatcher gattCallbackDispatcher = new GattCallbackDispatcher(bluetoothDevice.getAddress()) {
 
                     private final AtomicBoolean firstConnect = new AtomicBoolean(true);
 
+                    //本次连接尝试是否在超时前得到了回应
+                    private volatile boolean answered;
+
+                    //按缓存跳过了discoverDelay，发现服务失败时再按discoverDelay重试一次
+                    private volatile boolean skipDiscoverDelay;
+
+                    //本次discoverServices前实际等待的延迟，自适应模式据此学习
+                    private volatile int currentDiscoverDelay;
+
+                    private int discoverRetryCount;
+
+                    //已经调用discoverServices，还在等onServicesDiscovered
+                    private final AtomicBoolean discovering = new AtomicBoolean();
+
+                    private void discoverServicesDelayed(final BluetoothGatt gatt, int delay){
+                        currentDiscoverDelay = delay;
+                        record.discoverTimeout = schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!firstConnect.get()){
+                                    return;
+                                }
+                                discovering.set(true);
+                                //这个方法一定要延迟调用，刚链接上的时候大概率无法discoverServices
+                                if (!gatt.discoverServices()){
+                                    if (discovering.compareAndSet(true, false)){
+                                        onDiscoverFailed(gatt, "discoverServices error", "");
+                                    }
+                                    return;
+                                }
+                                //连上时已经解除了连接超时，没有回调时由这里兜底
+                                record.discoverTimeout = schedule(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        if (discovering.compareAndSet(true, false)){
+                                            onDiscoverFailed(gatt, "discoverServices timeout", "");
+                                        }
+                                    }
+                                }, DISCOVER_TIME_OUT);
+                            }
+                        }, delay);
+                    }
+
+                    private int getDiscoverDelay(){
+                        return discoverDelay == ADAPTIVE_DISCOVER_DELAY ? getDiscoverDelayTuner().getDelay(bluetoothDevice.getAddress()) : discoverDelay;
+                    }
+
+                    //按缓存跳过延迟的先按discoverDelay重试一次，自适应模式加长延迟重试，都不行就失败
+                    private void onDiscoverFailed(BluetoothGatt gatt, String info, String code){
+                        if (!firstConnect.get()){
+                            return;
+                        }
+                        if (skipDiscoverDelay) {
+                            skipDiscoverDelay = false;
+                            discoverServicesDelayed(gatt, getDiscoverDelay());
+                        } else if (discoverDelay == ADAPTIVE_DISCOVER_DELAY && discoverRetryCount < MAX_DISCOVER_RETRY) {
+                            discoverRetryCount++;
+                            discoverServicesDelayed(gatt, getDiscoverDelayTuner().onFailure(bluetoothDevice.getAddress(), currentDiscoverDelay));
+                        } else {
+                            if (discoverDelay == ADAPTIVE_DISCOVER_DELAY){
+                                getDiscoverDelayTuner().onFailure(bluetoothDevice.getAddress(), currentDiscoverDelay);
+                            }
+                            fail(gatt, info, code);
+                        }
+                    }
+
+                    private void cancelDiscoverTimeout(){
+                        TimerWheel.Timeout discoverTimeout = record.discoverTimeout;
+                        if (discoverTimeout != null){
+                            discoverTimeout.cancel();
+                        }
+                    }
+
+                    //初次连接阶段只会失败一次
+                    private void fail(BluetoothGatt gatt, String info, String code){
+                        if (firstConnect.compareAndSet(true, false)){
+                            cancelDiscoverTimeout();
+                            gatt.disconnect();
+                            gatt.close();
+                            onConnectListener.onError(info, code);
+                        }
+                    }
+
                     //注意：这个方法可能会多次回调
                     @Override
                     public void onConnectionStateChange(final BluetoothGatt gatt, int status, int newState) {
                         super.onConnectionStateChange(gatt, status, newState);
 
-                        leave();
+                        if (leave()){
+                            answered = true;
+                        }
+                        //已经超时，由onTimeout负责关闭和回调
+                        if (!answered){
+                            return;
+                        }
 
                         //初次连接
                         if (firstConnect.get()){
                             if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED) {
                                 //单纯的连接成功不能算成功，要等到发现服务的时候才能算成功
-                                record.discoverHandler = createDiscoverHandler(gatt);
-                                record.discoverHandler.sendEmptyMessageDelayed(0, discoverDelay);
+                                entry.transition(DeviceState.CONNECTING, DeviceState.DISCOVERING);
+                                if (gattLayoutCache == null){
+                                    discoverServicesDelayed(gatt, getDiscoverDelay());
+                                } else {
+                                    //布局缓存要读文件，不放在蓝牙回调线程上
+                                    getIoExecutor().execute(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            skipDiscoverDelay = gattLayoutCache.contains(bluetoothDevice);
+                                            discoverServicesDelayed(gatt, skipDiscoverDelay ? 0 : getDiscoverDelay());
+                                        }
+                                    });
+                                }
                             } else {
-                                firstConnect.set(false);
-                                gatt.disconnect();
-                                gatt.close();
-                                onConnectListener.onError("onConnectionStateChange fail", status+"-"+newState);
+                                fail(gatt, "onConnectionStateChange fail", status+"-"+newState);
                             }
+                        } else if (newState == BluetoothProfile.STATE_DISCONNECTED && mtuPending.compareAndSet(true, false)){
+                            //协商MTU期间断开，通道还没有交付，gatt要在这里关闭
+                            mtuTimeout.cancel();
+                            gatt.close();
+                            onConnectListener.onError("onConnectionStateChange fail", status+"-"+newState);
                         }
                     }
 
@@ -144,103 +404,424 @@ public class BluetoothCom {
                     public void onServicesDiscovered(BluetoothGatt gatt, int status) {
                         super.onServicesDiscovered(gatt, status);
 
+                        //超时后迟到的回调，以及通道建立后重新发现服务的回调都不在这里处理
+                        if (!discovering.compareAndSet(true, false)){
+                            return;
+                        }
+                        cancelDiscoverTimeout();
                         if (status == BluetoothGatt.GATT_SUCCESS) {
-                            firstConnect.set(false);
-                            record.bluetoothChannel = new BluetoothChannel(gatt, this, onCloseListener);
-                            onConnectListener.onSuccess(record.bluetoothChannel);
+                            if (!firstConnect.compareAndSet(true, false)){
+                                return;
+                            }
+                            if (gattLayoutCache != null){
+                                final List<BluetoothGattService> services = new ArrayList<>(gatt.getServices());
+                                getIoExecutor().execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        gattLayoutCache.update(bluetoothDevice, services);
+                                    }
+                                });
+                            }
+                            if (discoverDelay == ADAPTIVE_DISCOVER_DELAY && !skipDiscoverDelay){
+                                getDiscoverDelayTuner().onSuccess(bluetoothDevice.getAddress(), currentDiscoverDelay);
+                            }
+                            metricsSink.recordServicesDiscovered(bluetoothDevice.getAddress(), Clock.SYSTEM.uptimeMillis() - startTime);
+                            negotiateMtu(gatt);
                         } else {
-                            firstConnect.set(false);
-                            gatt.disconnect();
-                            gatt.close();
-                            onConnectListener.onError("onServicesDiscovered fail", String.valueOf(status));
+                            onDiscoverFailed(gatt, "onServicesDiscovered fail", String.valueOf(status));
+                        }
+                    }
+
+                    private final AtomicBoolean mtuPending = new AtomicBoolean();
+
+                    private volatile TimerWheel.Timeout mtuTimeout;
+
+                    //发现服务后先协商MTU再交付通道，有缓存时直接请求上次协商出的值
+                    private void negotiateMtu(final BluetoothGatt gatt){
+                        mtuTimeout = schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (mtuPending.get()){
+                                    metricsSink.recordTimeout(bluetoothDevice.getAddress(), MetricsSink.Op.REQUEST_MTU);
+                                }
+                                onMtuNegotiated(gatt, BluetoothChannel.DEFAULT_MTU);
+                            }
+                        }, MTU_TIME_OUT);
+                        mtuPending.set(true);
+                        Integer cachedMtu = getCachedMtu(bluetoothDevice.getAddress());
+                        if (!gatt.requestMtu(cachedMtu == null ? MAX_MTU : cachedMtu)){
+                            onMtuNegotiated(gatt, BluetoothChannel.DEFAULT_MTU);
+                        }
+                    }
+
+                    @Override
+                    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+                        super.onMtuChanged(gatt, mtu, status);
+                        if (status == BluetoothGatt.GATT_SUCCESS){
+                            putCachedMtu(bluetoothDevice.getAddress(), mtu);
+                        }
+                        onMtuNegotiated(gatt, status == BluetoothGatt.GATT_SUCCESS ? mtu : BluetoothChannel.DEFAULT_MTU);
+                    }
+
+                    private void onMtuNegotiated(BluetoothGatt gatt, int mtu){
+                        if (mtuPending.compareAndSet(true, false)){
+                            mtuTimeout.cancel();
+                            record.bluetoothChannel = new BluetoothChannel(gatt, this, mtu, metricsSink, executor, onCloseListener);
+                            onConnectListener.onSuccess(record.bluetoothChannel);
                         }
                     }
                 };
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && executor instanceof HandlerExecutor) {
+                    record.bluetoothGatt = bluetoothDevice.connectGatt(context, false,gattCallbackDispatcher,BluetoothDevice.TRANSPORT_LE,BluetoothDevice.PHY_LE_1M_MASK,((HandlerExecutor) executor).getHandler());
+                } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
                     record.bluetoothGatt = bluetoothDevice.connectGatt(context, false,gattCallbackDispatcher,BluetoothDevice.TRANSPORT_LE);
                 } else {
                     record.bluetoothGatt = bluetoothDevice.connectGatt(context, false,gattCallbackDispatcher);
                 }
             }
+
+            @Override
+            public void onTimeout() {
+                metricsSink.recordTimeout(bluetoothDevice.getAddress(), MetricsSink.Op.CONNECT);
+                if (record.bluetoothGatt != null){
+                    record.bluetoothGatt.disconnect();
+                    record.bluetoothGatt.close();
+                }
+                onConnectListener.onError("connect timeout", "");
+            }
         };
-        reference.set(record);
+        entry.set(record);
 
-        connectWorkManager.joinWork(record.connectWorkRunnable);
+        connectScheduler.join(connectTimeout, record.connectAttempt);
     }
 
-    private Handler createDiscoverHandler(final BluetoothGatt gatt){
-        return new Handler(Looper.getMainLooper(), new Handler.Callback() {
-            @Override
-            public boolean handleMessage(Message msg) {
-                if (msg.what == 0){
-                    //这个方法一定要延迟调用，刚链接上的时候大概率无法discoverServices
-                    gatt.discoverServices();
-                    return true;
+    public boolean disconnect(String device){
+        DeviceRegistry.Entry<Record, OnConnectListener> entry = registry.remove(device);
+        if (entry == null){
+            return false;
+        }
+        Record record = entry.get();
+        if (record == null){
+            //还没开始第一次连接尝试，Entry已经是CLOSING，不会再发起连接
+        } else if(record.bluetoothChannel != null){
+            if (record.claimClose()){
+                record.bluetoothChannel.close();
+            }
+        } else {
+            //正在重连的等待中时，下一次connectRetry看到CLOSING后不会再发起连接
+            if (connectScheduler.contain(record.connectAttempt)){
+                record.connectAttempt.leave();
+            }
+            //还没调用discoverServices或者还在等结果，取消对应的定时
+            if (record.discoverTimeout != null){
+                record.discoverTimeout.cancel();
+            }
+            //
+            if (record.bluetoothGatt != null){
+                record.bluetoothGatt.disconnect();
+                record.bluetoothGatt.close();
+            }
+        }
+        //还在连接中时，进行中的那次尝试之后的结果都会被忽略，等待的监听要在这里回调
+        final List<OnConnectListener> waiters = entry.drainWaiters();
+        if (!waiters.isEmpty()){
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (OnConnectListener listener : waiters){
+                        listener.onError("disconnected", BluetoothChannel.CODE_CANCELLED);
+                    }
                 }
-                return false;
+            });
+        }
+        return true;
+    }
+
+    private Integer getCachedMtu(String device){
+        synchronized (mtuMap){
+            return mtuMap.get(device);
+        }
+    }
+
+    private void putCachedMtu(String device, int mtu){
+        synchronized (mtuMap){
+            mtuMap.put(device, mtu);
+        }
+    }
+
+    //已经完成连接的所有通道，正在连接或重连中的设备不包含在内
+    public List<BluetoothChannel> getConnectedChannels(){
+        List<BluetoothChannel> channels = new ArrayList<>();
+        for (DeviceRegistry.Entry<Record, OnConnectListener> entry : registry.entries()){
+            Record record = entry.get();
+            if (entry.getState() == DeviceState.READY && record != null && record.bluetoothChannel != null){
+                channels.add(record.bluetoothChannel);
             }
-        });
+        }
+        return channels;
     }
 
-    public boolean disconnect(String device){
-        Pair<Boolean, AtomicReference<Record>> pair = containWithRemoveDevice(device);
-        if (pair.first){
-            if (pair.second == null){
-                //一般走到这里的时候，意味着正在重连中，因为我们删掉了这个设备的Key，所以重连不会发生
-            } else {
-                Record record = pair.second.get();
-                if(record.bluetoothChannel != null){
-                    record.bluetoothChannel.close();
+    //对当前所有已连接的通道批量操作，详见ChannelGroup
+    public ChannelGroup createChannelGroup(){
+        return new ChannelGroup(getConnectedChannels(), executor);
+    }
+
+    //L2CAP按MAC+PSM登记，与同一设备的GATT连接互不影响
+    private final DeviceRegistry<StreamRecord, OnStreamConnectListener> streamRegistry = new DeviceRegistry<>();
+
+    private static String streamKey(String device, int psm){
+        return device + "/" + psm;
+    }
+
+    //打开L2CAP CoC流连接（API 29以上），适合固件升级、日志导出等大批量传输，和GATT连接可以同时存在。
+    //psm一般由设备通过GATT特征值告知；secure为true时要求加密链路。超时和重连与connect相同，
+    //但retryPolicy按MAC+PSM单独记录，L2CAP失败不会让同一设备的GATT连接熔断。
+    //同一设备同一psm重复调用会合并到进行中或已经建立的连接上
+    public void connectL2cap(final BluetoothDevice bluetoothDevice, final int psm, final boolean secure, final int retryCount, final OnStreamConnectListener onStreamConnectListener){
+
+        final String device = bluetoothDevice.getAddress();
+        final String key = streamKey(device, psm);
+        final RetryPolicy retryPolicy = this.retryPolicy;
+        final StreamConnector streamConnector = this.streamConnector;
+
+        //系统版本不支持时重试也没有意义
+        if (streamConnector == StreamConnector.L2CAP && Build.VERSION.SDK_INT < Build.VERSION_CODES.Q){
+            postStreamError(onStreamConnectListener, "L2CAP CoC requires API 29");
+            return;
+        }
+
+        if (!retryPolicy.allowConnect(key)){
+            postStreamError(onStreamConnectListener, "circuit open");
+            return;
+        }
+
+        final DeviceRegistry.Entry<StreamRecord, OnStreamConnectListener> entry = new DeviceRegistry.Entry<>(key);
+        DeviceRegistry.Entry<StreamRecord, OnStreamConnectListener> existing = streamRegistry.register(entry);
+        if (existing != null){
+            if (!existing.addWaiter(onStreamConnectListener)){
+                StreamRecord record = existing.get();
+                if (existing.getState() == DeviceState.READY && record != null && record.connection.isConnected()){
+                    onStreamConnectListener.onSuccess(record);
+                } else if (existing.getState() == DeviceState.READY) {
+                    //对端已经断开，但使用方还没有close
+                    streamRegistry.remove(existing);
+                    connectL2cap(bluetoothDevice, psm, secure, retryCount, onStreamConnectListener);
                 } else {
-                    //
-                    if (connectWorkManager.containWork(record.connectWorkRunnable)){
-                        record.connectWorkRunnable.leave();
-                    }
-                    //如果还没调用discoverServices就赶紧取消该消息
-                    if (record.discoverHandler != null && record.discoverHandler.hasMessages(0)){
-                        record.discoverHandler.removeMessages(0);
-                    }
-                    //
-                    if (record.bluetoothGatt != null){
-                        record.bluetoothGatt.disconnect();
-                        record.bluetoothGatt.close();
-                    }
+                    onStreamConnectListener.onError("device closing", "");
                 }
             }
+            return;
         }
-        return pair.first;
+        entry.addWaiter(onStreamConnectListener);
+
+        connectL2capRetry(entry, bluetoothDevice, psm, secure, streamConnector, retryPolicy, retryCount, 0, Clock.SYSTEM.uptimeMillis(), new OnStreamConnectListener() {
+            @Override
+            public void onSuccess(StreamConnection connection) {
+                retryPolicy.onSuccess(key);
+                if (!entry.transition(DeviceState.CONNECTING, DeviceState.READY)){
+                    closeQuietly(connection);
+                    return;
+                }
+                for (OnStreamConnectListener listener : entry.drainWaiters()){
+                    listener.onSuccess(connection);
+                }
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                if (streamRegistry.remove(entry)) {
+                    retryPolicy.onFailure(key);
+                    for (OnStreamConnectListener listener : entry.drainWaiters()){
+                        listener.onError(info, code);
+                    }
+                }
+            }
+        });
     }
 
-    private List<String> getAllConnected(){
-        return new ArrayList<>(recordMap.keySet());
+    //与正常的失败一样在executor上回调
+    private void postStreamError(final OnStreamConnectListener onStreamConnectListener, final String info){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onStreamConnectListener.onError(info, "");
+            }
+        });
     }
 
-    private Pair<Boolean,AtomicReference<Record>> containWithRemoveDevice(String device){
-        if (recordMap.containsKey(device)){
-            synchronized (recordMap){
-                if (recordMap.containsKey(device)){
-                    return new Pair<>(true,recordMap.remove(device));
+    public DeviceState getStreamState(String mac, int psm){
+        return streamRegistry.getState(streamKey(mac, psm));
+    }
+
+    //关闭连接或者中止进行中的连接和重连，使用方直接close拿到的StreamConnection也可以
+    public boolean disconnectL2cap(String mac, int psm){
+        DeviceRegistry.Entry<StreamRecord, OnStreamConnectListener> entry = streamRegistry.remove(streamKey(mac, psm));
+        if (entry == null){
+            return false;
+        }
+        StreamRecord record = entry.get();
+        //进行中的connect会因此抛出IOException，重连等待中的下一次看到CLOSING后不会再连接
+        if (record != null){
+            closeQuietly(record.connection);
+        }
+        final List<OnStreamConnectListener> waiters = entry.drainWaiters();
+        if (!waiters.isEmpty()){
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (OnStreamConnectListener listener : waiters){
+                        listener.onError("disconnected", BluetoothChannel.CODE_CANCELLED);
+                    }
                 }
+            });
+        }
+        return true;
+    }
+
+    private void connectL2capRetry(final DeviceRegistry.Entry<StreamRecord, OnStreamConnectListener> entry, final BluetoothDevice bluetoothDevice, final int psm, final boolean secure, final StreamConnector streamConnector, final RetryPolicy retryPolicy, final int maxCount, final int curCount, final long startTime, final OnStreamConnectListener onStreamConnectListener){
+        if (entry.getState() == DeviceState.CLOSING){
+            return;
+        }
+        final String device = bluetoothDevice.getAddress();
+        final int connectTimeout = this.connectTimeout;
+        metricsSink.recordConnectAttempt(device, curCount);
+        getIoExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final StreamRecord record;
+                try {
+                    record = new StreamRecord(entry, streamConnector.create(bluetoothDevice, psm, secure));
+                } catch (IOException e) {
+                    onAttemptError("l2cap create fail: " + e.getMessage(), false);
+                    return;
+                }
+                entry.set(record);
+                //set之前被disconnect的，这里补上关闭
+                if (entry.getState() == DeviceState.CLOSING){
+                    closeQuietly(record.connection);
+                    return;
+                }
+                final AtomicBoolean timedOut = new AtomicBoolean();
+                TimerWheel.Timeout timeout = TimerWheel.shared().newTimeout(new Runnable() {
+                    @Override
+                    public void run() {
+                        timedOut.set(true);
+                        metricsSink.recordTimeout(device, MetricsSink.Op.CONNECT);
+                        closeQuietly(record.connection);
+                    }
+                }, connectTimeout);
+                try {
+                    record.connection.connect();
+                    timeout.cancel();
+                } catch (IOException e) {
+                    timeout.cancel();
+                    closeQuietly(record.connection);
+                    onAttemptError(timedOut.get() ? "connect timeout" : "l2cap connect fail: " + e.getMessage(), timedOut.get());
+                    return;
+                }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onStreamConnectListener.onSuccess(record);
+                    }
+                });
+            }
+
+            private void onAttemptError(final String info, final boolean timedOut){
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean retried = scheduleRetry(retryPolicy, entry.getDevice(), maxCount, curCount, startTime, timedOut, new Runnable() {
+                            @Override
+                            public void run() {
+                                connectL2capRetry(entry, bluetoothDevice, psm, secure, streamConnector, retryPolicy, maxCount, curCount+1, startTime, onStreamConnectListener);
+                            }
+                        });
+                        if (!retried){
+                            onStreamConnectListener.onError(info, "");
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static void closeQuietly(Closeable closeable){
+        if (closeable != null){
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
             }
         }
-        return new Pair<>(false,null);
+    }
+
+    //交付给使用方的连接，close时同时从登记表中移除
+    private class StreamRecord implements StreamConnection {
+
+        private final DeviceRegistry.Entry<StreamRecord, OnStreamConnectListener> entry;
+
+        private final StreamConnection connection;
+
+        StreamRecord(DeviceRegistry.Entry<StreamRecord, OnStreamConnectListener> entry, StreamConnection connection) {
+            this.entry = entry;
+            this.connection = connection;
+        }
+
+        @Override
+        public String getAddress() {
+            return connection.getAddress();
+        }
+
+        @Override
+        public void connect() throws IOException {
+            connection.connect();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connection.isConnected();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return connection.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return connection.getOutputStream();
+        }
+
+        @Override
+        public void close() throws IOException {
+            streamRegistry.remove(entry);
+            connection.close();
+        }
     }
 
     private class Record {
         //连接前阶段
         //
-        private SerialWorkManager.WorkRunnable connectWorkRunnable;
+        private ConnectScheduler.Attempt connectAttempt;
         //
         private BluetoothGatt bluetoothGatt;
-        //回调onConnectionStateChange后，会调用discoverServices，这个时候未回调onServicesDiscovered
-        private Handler discoverHandler;
+        //发现服务前的延迟，调用discoverServices后换成等待onServicesDiscovered的超时
+        private volatile TimerWheel.Timeout discoverTimeout;
         //连接后阶段
         //以上流程完成后都使用它来 中止连接
-        private BluetoothChannel bluetoothChannel;
+        private volatile BluetoothChannel bluetoothChannel;
+        //
+        private final AtomicBoolean channelClosed = new AtomicBoolean();
+
+        //只有第一次调用返回true，由它关闭bluetoothChannel
+        private boolean claimClose(){
+            return channelClosed.compareAndSet(false, true);
+        }
     }
 
-    interface Supplier<T> {
-        T get();
+    public interface OnStreamConnectListener{
+        void onSuccess(StreamConnection connection);
+        void onError(String info,String code);
     }
 
     public interface OnConnectListener{
@@ -0,0 +1,76 @@
+package com.xq.bluetoothcom;
+
+import java.util.ArrayDeque;
+
+//按大小分级的缓冲池，每条通道一个。级别为32到512字节的2的幂，正好覆盖ATT允许的最大值长度，
+//更大的数据不走池，直接分配
+class BufferPool {
+
+    private static final int MIN_CLASS_SHIFT = 5;
+
+    private static final int MAX_CLASS_SHIFT = 9;
+
+    //每个级别最多缓存的空闲缓冲数，超出的释放后交给GC
+    private static final int DEFAULT_MAX_IDLE = 64;
+
+    private final ArrayDeque<LeasedBuffer>[] freeLists;
+
+    private final int maxIdle;
+
+    BufferPool() {
+        this(DEFAULT_MAX_IDLE);
+    }
+
+    //不能直接创建泛型数组，只能创建原始类型的数组再转换
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+        this.freeLists = new ArrayDeque[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+        for (int i = 0; i < freeLists.length; i++){
+            freeLists[i] = new ArrayDeque<>();
+        }
+    }
+
+    //取出一个缓冲并拷入数据
+    LeasedBuffer acquire(byte[] bytes){
+        int length = bytes == null ? 0 : bytes.length;
+        int sizeClass = sizeClassOf(length);
+        LeasedBuffer buffer = null;
+        if (sizeClass >= 0){
+            ArrayDeque<LeasedBuffer> freeList = freeLists[sizeClass];
+            synchronized (freeList){
+                buffer = freeList.poll();
+            }
+            if (buffer == null){
+                buffer = new LeasedBuffer(this, sizeClass, new byte[1 << (sizeClass + MIN_CLASS_SHIFT)]);
+            }
+        } else {
+            buffer = new LeasedBuffer(this, sizeClass, new byte[length]);
+        }
+        buffer.lease(bytes, length);
+        return buffer;
+    }
+
+    void release(LeasedBuffer buffer){
+        if (buffer.sizeClass < 0){
+            return;
+        }
+        ArrayDeque<LeasedBuffer> freeList = freeLists[buffer.sizeClass];
+        synchronized (freeList){
+            if (freeList.size() < maxIdle){
+                freeList.offer(buffer);
+            }
+        }
+    }
+
+    //返回-1表示超过最大级别
+    private static int sizeClassOf(int length){
+        for (int shift = MIN_CLASS_SHIFT; shift <= MAX_CLASS_SHIFT; shift++){
+            if (length <= 1 << shift){
+                return shift - MIN_CLASS_SHIFT;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.xq.bluetoothcom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+//通知的缓冲接收：蓝牙回调线程只把数据放进预分配的环形队列，再由executor成批交给监听，
+//消费慢时不会卡住回调线程。作为OnReceiveListener传给startNotify即可，每个订阅一个实例
+public class BufferedReceiver implements BluetoothChannel.OnReceiveListener {
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 32;
+
+    private final byte[][] ring;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final Executor executor;
+
+    private final OnReceiveBatchListener batchListener;
+
+    //只在投递任务中使用，同一时间最多只有一个投递任务
+    private final List<byte[]> batch = new ArrayList<>();
+
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private int head;
+
+    private int size;
+
+    private boolean drainScheduled;
+
+    private long droppedCount;
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public BufferedReceiver(int capacity, OverflowPolicy overflowPolicy, Executor executor, OnReceiveBatchListener batchListener) {
+        if (capacity <= 0){
+            throw new IllegalArgumentException("capacity must be greater than 0");
+        }
+        this.ring = new byte[capacity][];
+        this.overflowPolicy = overflowPolicy;
+        this.executor = executor;
+        this.batchListener = batchListener;
+    }
+
+    public synchronized BufferedReceiver setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize <= 0){
+            throw new IllegalArgumentException("maxBatchSize must be greater than 0");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    @Override
+    public void onReceive(byte[] bytes) {
+        synchronized (this){
+            if (size == ring.length){
+                switch (overflowPolicy){
+                    case DROP_NEWEST:
+                        droppedCount++;
+                        return;
+                    case DROP_OLDEST:
+                        ring[head] = null;
+                        head = (head + 1) % ring.length;
+                        size--;
+                        droppedCount++;
+                        break;
+                    case BLOCK:
+                        //executor不能和蓝牙回调是同一个线程，否则会死锁
+                        while (size == ring.length){
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                droppedCount++;
+                                return;
+                            }
+                        }
+                        break;
+                }
+            }
+            ring[(head + size) % ring.length] = bytes;
+            size++;
+            if (drainScheduled){
+                return;
+            }
+            drainScheduled = true;
+        }
+        try {
+            executor.execute(drainRunnable);
+        } catch (RuntimeException e) {
+            //executor拒绝时同样让下一条通知重新安排投递
+            synchronized (this){
+                drainScheduled = false;
+            }
+            throw e;
+        }
+    }
+
+    //丢弃所有未交付的数据，阻塞中的回调线程会被唤醒
+    public synchronized void clear(){
+        for (int i = 0; i < size; i++){
+            ring[(head + i) % ring.length] = null;
+        }
+        head = 0;
+        size = 0;
+        notifyAll();
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized int getPendingCount() {
+        return size;
+    }
+
+    private void drain(){
+        while (true){
+            synchronized (this){
+                if (size == 0){
+                    drainScheduled = false;
+                    return;
+                }
+                int count = Math.min(size, maxBatchSize);
+                for (int i = 0; i < count; i++){
+                    batch.add(ring[head]);
+                    ring[head] = null;
+                    head = (head + 1) % ring.length;
+                }
+                size -= count;
+                notifyAll();
+            }
+            try {
+                batchListener.onReceiveBatch(batch);
+            } catch (RuntimeException e) {
+                //监听抛出异常时让下一条通知重新安排投递，不然队列会一直积压
+                synchronized (this){
+                    drainScheduled = false;
+                }
+                throw e;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    public enum OverflowPolicy{
+        //丢弃队列中最早的数据，保证拿到的是最新的
+        DROP_OLDEST,
+        //丢弃新到的数据
+        DROP_NEWEST,
+        //阻塞蓝牙回调线程直到有空间，对端会因此被限速
+        BLOCK,
+    }
+
+    public interface OnReceiveBatchListener {
+        //list在回调返回后会被复用，需要保留数据时请自行拷贝
+        void onReceiveBatch(List<byte[]> list);
+    }
+
+}
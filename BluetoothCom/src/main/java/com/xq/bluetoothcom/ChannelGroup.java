@@ -0,0 +1,337 @@
+package com.xq.bluetoothcom;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+//对一组通道同时发起同一个操作。每个通道仍然走自己的串行队列，通道之间并行，最多同时进行maxInFlight个；
+//所有通道都有结果或者到达deadline时回调一次，未完成的设备记为超时
+public class ChannelGroup {
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    private static final long DEFAULT_DEADLINE = 30*1000;
+
+    public static final String CODE_DEADLINE = "deadline";
+
+    private final List<BluetoothChannel> channels;
+
+    private final Executor executor;
+
+    private final TimerWheel timerWheel;
+
+    private volatile int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    private volatile long deadline = DEFAULT_DEADLINE;
+
+    public ChannelGroup(Collection<BluetoothChannel> channels) {
+        this(channels, HandlerExecutor.MAIN);
+    }
+
+    //到达deadline时的回调在executor上执行
+    public ChannelGroup(Collection<BluetoothChannel> channels, Executor executor) {
+        this(channels, executor, TimerWheel.shared());
+    }
+
+    ChannelGroup(Collection<BluetoothChannel> channels, Executor executor, TimerWheel timerWheel) {
+        this.channels = new ArrayList<>(channels);
+        this.executor = executor;
+        this.timerWheel = timerWheel;
+    }
+
+    public ChannelGroup setMaxInFlight(int maxInFlight) {
+        if (maxInFlight <= 0){
+            throw new IllegalArgumentException("maxInFlight must be greater than 0");
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    //从发起到回调的最长时间，单位毫秒
+    public ChannelGroup setDeadline(long deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    public List<BluetoothChannel> getChannels() {
+        return Collections.unmodifiableList(channels);
+    }
+
+    public void writeCharacteristic(final CharacteristicRef ref, final byte[] bytes, final OnGroupCallback callback){
+        writeCharacteristic(ref, bytes, Priority.INTERACTIVE, callback);
+    }
+
+    public void writeCharacteristic(final CharacteristicRef ref, final byte[] bytes, final Priority priority, final OnGroupCallback callback){
+        new GroupRun(callback) {
+            @Override
+            BluetoothChannel.Operation start(BluetoothChannel channel, BluetoothChannel.OnActionCallback actionCallback, BluetoothChannel.OnReadCallback readCallback) {
+                return channel.writeCharacteristic(ref, bytes, priority, actionCallback);
+            }
+        }.start();
+    }
+
+    public void readCharacteristic(final CharacteristicRef ref, final OnGroupCallback callback){
+        readCharacteristic(ref, Priority.INTERACTIVE, callback);
+    }
+
+    public void readCharacteristic(final CharacteristicRef ref, final Priority priority, final OnGroupCallback callback){
+        new GroupRun(callback) {
+            @Override
+            BluetoothChannel.Operation start(BluetoothChannel channel, BluetoothChannel.OnActionCallback actionCallback, BluetoothChannel.OnReadCallback readCallback) {
+                return channel.readCharacteristic(ref, priority, readCallback);
+            }
+        }.start();
+    }
+
+    public void startNotify(final CharacteristicRef ref, final BluetoothChannel.NotifyType notifyType, final OnGroupCallback callback, final OnGroupReceiveListener onGroupReceiveListener){
+        startNotify(ref, notifyType, Priority.INTERACTIVE, callback, onGroupReceiveListener);
+    }
+
+    public void startNotify(final CharacteristicRef ref, final BluetoothChannel.NotifyType notifyType, final Priority priority, final OnGroupCallback callback, final OnGroupReceiveListener onGroupReceiveListener){
+        new GroupRun(callback) {
+            @Override
+            BluetoothChannel.Operation start(final BluetoothChannel channel, BluetoothChannel.OnActionCallback actionCallback, BluetoothChannel.OnReadCallback readCallback) {
+                return channel.startNotify(ref, notifyType, priority, actionCallback, new BluetoothChannel.OnReceiveListener() {
+                    @Override
+                    public void onReceive(byte[] bytes) {
+                        onGroupReceiveListener.onReceive(channel.getAddress(), bytes);
+                    }
+                });
+            }
+        }.start();
+    }
+
+    public void stopNotify(final CharacteristicRef ref, final OnGroupCallback callback){
+        new GroupRun(callback) {
+            @Override
+            BluetoothChannel.Operation start(BluetoothChannel channel, BluetoothChannel.OnActionCallback actionCallback, BluetoothChannel.OnReadCallback readCallback) {
+                return channel.stopNotify(ref, actionCallback);
+            }
+        }.start();
+    }
+
+    //一次组操作的执行过程
+    private abstract class GroupRun {
+
+        private final OnGroupCallback callback;
+
+        private final ArrayDeque<BluetoothChannel> pendingQueue = new ArrayDeque<>(channels);
+
+        private final Map<String, DeviceResult> results = new LinkedHashMap<>();
+
+        //进行中的操作，到达deadline时取消，释放各通道的串行队列
+        private final Map<String, BluetoothChannel.Operation> operations = new HashMap<>();
+
+        private final int maxInFlight = ChannelGroup.this.maxInFlight;
+
+        private int inFlight;
+
+        private boolean finished;
+
+        private TimerWheel.Timeout deadlineTimeout;
+
+        GroupRun(OnGroupCallback callback) {
+            this.callback = callback;
+        }
+
+        abstract BluetoothChannel.Operation start(BluetoothChannel channel, BluetoothChannel.OnActionCallback actionCallback, BluetoothChannel.OnReadCallback readCallback);
+
+        void start(){
+            synchronized (this){
+                deadlineTimeout = timerWheel.newTimeout(new Runnable() {
+                    @Override
+                    public void run() {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                onDeadline();
+                            }
+                        });
+                    }
+                }, deadline);
+            }
+            startNext();
+        }
+
+        //在锁外启动，通道的回调可能同步执行
+        private void startNext(){
+            while (true){
+                final BluetoothChannel channel;
+                synchronized (this){
+                    if (finished || inFlight >= maxInFlight || pendingQueue.isEmpty()){
+                        break;
+                    }
+                    channel = pendingQueue.poll();
+                    inFlight++;
+                }
+                final String device = channel.getAddress();
+                BluetoothChannel.Operation operation = start(channel, new BluetoothChannel.OnActionCallback() {
+                    @Override
+                    public void onSuccess() {
+                        onResult(new DeviceResult(device, true, null, null, null));
+                    }
+
+                    @Override
+                    public void onError(String info, String code) {
+                        onResult(new DeviceResult(device, false, null, info, code));
+                    }
+                }, new BluetoothChannel.OnReadCallback() {
+                    @Override
+                    public void onRead(byte[] bytes) {
+                        onResult(new DeviceResult(device, true, bytes, null, null));
+                    }
+
+                    @Override
+                    public void onError(String info, String code) {
+                        onResult(new DeviceResult(device, false, null, info, code));
+                    }
+                });
+                synchronized (this){
+                    //回调可能已经同步执行过了
+                    if (!finished && !results.containsKey(device)){
+                        operations.put(device, operation);
+                    }
+                }
+            }
+            finishIfDone();
+        }
+
+        private void onResult(DeviceResult result){
+            synchronized (this){
+                //超过deadline后才到的结果忽略
+                if (finished || results.containsKey(result.getDevice())){
+                    return;
+                }
+                results.put(result.getDevice(), result);
+                operations.remove(result.getDevice());
+                inFlight--;
+            }
+            startNext();
+        }
+
+        private void onDeadline(){
+            List<BluetoothChannel.Operation> timeoutOperations;
+            synchronized (this){
+                if (finished){
+                    return;
+                }
+                deadlineTimeout = null;
+                for (BluetoothChannel channel : channels){
+                    String device = channel.getAddress();
+                    if (!results.containsKey(device)){
+                        results.put(device, new DeviceResult(device, false, null, "deadline exceeded", CODE_DEADLINE));
+                    }
+                }
+                pendingQueue.clear();
+                inFlight = 0;
+                timeoutOperations = new ArrayList<>(operations.values());
+                operations.clear();
+            }
+            finishIfDone();
+            for (BluetoothChannel.Operation operation : timeoutOperations){
+                operation.cancel();
+            }
+        }
+
+        private void finishIfDone(){
+            GroupResult groupResult;
+            synchronized (this){
+                if (finished || inFlight > 0 || !pendingQueue.isEmpty()){
+                    return;
+                }
+                finished = true;
+                if (deadlineTimeout != null){
+                    deadlineTimeout.cancel();
+                    deadlineTimeout = null;
+                }
+                groupResult = new GroupResult(results);
+            }
+            callback.onComplete(groupResult);
+        }
+    }
+
+    public static class DeviceResult {
+
+        private final String device;
+
+        private final boolean success;
+
+        private final byte[] value;
+
+        private final String info;
+
+        private final String code;
+
+        DeviceResult(String device, boolean success, byte[] value, String info, String code) {
+            this.device = device;
+            this.success = success;
+            this.value = value;
+            this.info = info;
+            this.code = code;
+        }
+
+        public String getDevice() {
+            return device;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        //只有读操作才有值
+        public byte[] getValue() {
+            return value;
+        }
+
+        public String getInfo() {
+            return info;
+        }
+
+        public String getCode() {
+            return code;
+        }
+    }
+
+    public static class GroupResult {
+
+        private final Map<String, DeviceResult> results;
+
+        GroupResult(Map<String, DeviceResult> results) {
+            this.results = Collections.unmodifiableMap(new LinkedHashMap<>(results));
+        }
+
+        //key为设备MAC
+        public Map<String, DeviceResult> getResults() {
+            return results;
+        }
+
+        public int getSuccessCount(){
+            int count = 0;
+            for (DeviceResult result : results.values()){
+                if (result.isSuccess()){
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public boolean isAllSuccess(){
+            return getSuccessCount() == results.size();
+        }
+    }
+
+    public interface OnGroupCallback {
+        void onComplete(GroupResult result);
+    }
+
+    public interface OnGroupReceiveListener {
+        void onReceive(String device, byte[] bytes);
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.xq.bluetoothcom;
+
+import java.util.UUID;
+
+//预先解析好的特征值引用，热路径上反复读写时使用，避免每次都解析字符串
+public final class CharacteristicRef {
+
+    private final UUID serviceUUID;
+
+    private final UUID characterUUID;
+
+    public CharacteristicRef(UUID serviceUUID, UUID characterUUID) {
+        if (serviceUUID == null || characterUUID == null){
+            throw new NullPointerException("uuid == null");
+        }
+        this.serviceUUID = serviceUUID;
+        this.characterUUID = characterUUID;
+    }
+
+    public static CharacteristicRef of(String serviceUUID, String characterUUID){
+        return new CharacteristicRef(UUID.fromString(serviceUUID), UUID.fromString(characterUUID));
+    }
+
+    public DescriptorRef descriptor(String descriptorUUID){
+        return new DescriptorRef(this, UUID.fromString(descriptorUUID));
+    }
+
+    public DescriptorRef descriptor(UUID descriptorUUID){
+        return new DescriptorRef(this, descriptorUUID);
+    }
+
+    public UUID getServiceUUID() {
+        return serviceUUID;
+    }
+
+    public UUID getCharacterUUID() {
+        return characterUUID;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CharacteristicRef)) return false;
+        CharacteristicRef that = (CharacteristicRef) o;
+        return serviceUUID.equals(that.serviceUUID) && characterUUID.equals(that.characterUUID);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * serviceUUID.hashCode() + characterUUID.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "/" + serviceUUID + "/" + characterUUID;
+    }
+}
@@ -0,0 +1,122 @@
+package com.xq.bluetoothcom;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+//帧尾校验。出站在数据后追加校验值，入站校验并去掉校验值，不一致时抛出CodecException。
+//放在分帧之后（入站）/之前（出站），每次处理的是一个完整的帧
+public final class ChecksumCodec {
+
+    public enum Type {
+        //CRC-16/CCITT-FALSE：多项式0x1021，初值0xFFFF
+        CRC16(2),
+        //与java.util.zip.CRC32相同
+        CRC32(4);
+
+        private final int length;
+
+        Type(int length) {
+            this.length = length;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++){
+            int crc = i << 8;
+            for (int j = 0; j < 8; j++){
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private ChecksumCodec() {
+    }
+
+    public static int crc16(byte[] bytes, int offset, int length){
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++){
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >> 8) ^ bytes[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    public static long crc32(byte[] bytes, int offset, int length){
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, offset, length);
+        return crc32.getValue();
+    }
+
+    static long checksum(Type type, byte[] bytes, int offset, int length){
+        return type == Type.CRC16 ? crc16(bytes, offset, length) : crc32(bytes, offset, length);
+    }
+
+    public static class Verifier extends CodecPipeline.InboundHandler {
+
+        private final Type type;
+
+        private final boolean bigEndian;
+
+        public Verifier(Type type) {
+            this(type, true);
+        }
+
+        public Verifier(Type type, boolean bigEndian) {
+            this.type = type;
+            this.bigEndian = bigEndian;
+        }
+
+        @Override
+        public void read(Object message, CodecPipeline.Output out) throws CodecPipeline.CodecException {
+            byte[] bytes = CodecPipeline.toBytes(message);
+            int length = bytes.length - type.length;
+            if (length < 0){
+                throw new CodecPipeline.CodecException("frame shorter than checksum: " + bytes.length);
+            }
+            long expected = 0;
+            for (int i = 0; i < type.length; i++){
+                int b = bytes[length + (bigEndian ? i : type.length - 1 - i)] & 0xFF;
+                expected = (expected << 8) | b;
+            }
+            if (checksum(type, bytes, 0, length) != expected){
+                throw new CodecPipeline.CodecException(type + " mismatch");
+            }
+            out.add(Arrays.copyOf(bytes, length));
+        }
+    }
+
+    public static class Appender extends CodecPipeline.OutboundHandler {
+
+        private final Type type;
+
+        private final boolean bigEndian;
+
+        public Appender(Type type) {
+            this(type, true);
+        }
+
+        public Appender(Type type, boolean bigEndian) {
+            this.type = type;
+            this.bigEndian = bigEndian;
+        }
+
+        @Override
+        public void write(Object message, CodecPipeline.Output out) throws CodecPipeline.CodecException {
+            byte[] bytes = CodecPipeline.toBytes(message);
+            long checksum = checksum(type, bytes, 0, bytes.length);
+            byte[] frame = Arrays.copyOf(bytes, bytes.length + type.length);
+            for (int i = 0; i < type.length; i++){
+                int shift = 8 * (bigEndian ? type.length - 1 - i : i);
+                frame[bytes.length + i] = (byte) (checksum >> shift);
+            }
+            out.add(frame);
+        }
+    }
+
+}
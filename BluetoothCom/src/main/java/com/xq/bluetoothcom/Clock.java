@@ -0,0 +1,15 @@
+package com.xq.bluetoothcom;
+
+public interface Clock {
+
+    //单调时钟，单位毫秒，不受系统时间修改影响
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return System.nanoTime() / 1000000L;
+        }
+    };
+
+    long uptimeMillis();
+
+}
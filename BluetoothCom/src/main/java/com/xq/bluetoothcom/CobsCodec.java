@@ -0,0 +1,105 @@
+package com.xq.bluetoothcom;
+
+import java.util.Arrays;
+
+//COBS分帧：编码后数据中没有0，帧以0结束。相比SLIP开销固定，每254字节最多多1个字节
+public final class CobsCodec {
+
+    private CobsCodec() {
+    }
+
+    //逐字节解码；编码块被0截断或帧过长时丢弃当前帧直到下一个0
+    public static class Decoder extends CodecPipeline.InboundHandler {
+
+        private final int maxFrameLength;
+
+        private final GrowableBuffer frame = new GrowableBuffer(64);
+
+        //当前编码块还剩多少个数据字节
+        private int remaining;
+
+        //上一个编码块的code，小于0xFF时下一个块开始前要补一个0
+        private int code;
+
+        private boolean discarding;
+
+        public Decoder() {
+            this(FrameAssembler.MAX_FRAME_SIZE);
+        }
+
+        public Decoder(int maxFrameLength) {
+            this.maxFrameLength = maxFrameLength;
+        }
+
+        @Override
+        public void read(Object message, CodecPipeline.Output out) throws CodecPipeline.CodecException {
+            byte[] bytes = CodecPipeline.toBytes(message);
+            for (byte b : bytes){
+                if (b == 0){
+                    if (!discarding && remaining == 0 && frame.readable() > 0){
+                        out.add(frame.read(frame.readable()));
+                    }
+                    reset();
+                } else if (discarding){
+                    //等待下一个0
+                } else if (remaining == 0){
+                    if (code != 0 && code != 0xFF){
+                        append((byte) 0);
+                    }
+                    code = b & 0xFF;
+                    remaining = code - 1;
+                } else {
+                    append(b);
+                    remaining--;
+                }
+            }
+        }
+
+        @Override
+        public void reset() {
+            frame.clear();
+            remaining = 0;
+            code = 0;
+            discarding = false;
+        }
+
+        private void append(byte b){
+            if (frame.readable() >= maxFrameLength){
+                discarding = true;
+                return;
+            }
+            frame.write(b);
+        }
+    }
+
+    public static class Encoder extends CodecPipeline.OutboundHandler {
+
+        @Override
+        public void write(Object message, CodecPipeline.Output out) throws CodecPipeline.CodecException {
+            byte[] bytes = CodecPipeline.toBytes(message);
+            byte[] frame = new byte[bytes.length + bytes.length / 254 + 2];
+            int codeIndex = 0;
+            int index = 1;
+            int code = 1;
+            for (byte b : bytes){
+                if (b == 0){
+                    frame[codeIndex] = (byte) code;
+                    codeIndex = index++;
+                    code = 1;
+                } else {
+                    frame[index++] = b;
+                    code++;
+                    if (code == 0xFF){
+                        frame[codeIndex] = (byte) code;
+                        codeIndex = index++;
+                        code = 1;
+                    }
+                }
+            }
+            frame[codeIndex] = (byte) code;
+            frame[index++] = 0;
+            out.add(index == frame.length ? frame : Arrays.copyOf(frame, index));
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package com.xq.bluetoothcom;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//通知和写入上的编解码流水线。入站按添加顺序从字节到消息：第一级收到通知的byte[]，最后一级的输出交给OnMessageListener；
+//出站按添加顺序从消息到字节：第一级收到write的消息，最后一级必须输出byte[]。
+//每一级可以输出0个或多个消息，有状态的解码器（拼帧）跨通知保存进度，因此一个流水线只能用于一个订阅。
+//作为OnReceiveListener传给startNotify即可，StreamConnection读到的数据也可以直接交给onReceive
+public class CodecPipeline<T> implements BluetoothChannel.OnReceiveListener {
+
+    //编码失败时write回调onError的code
+    public static final String CODE_ENCODE = "encode";
+
+    private final List<InboundStage> inboundStages = new ArrayList<>();
+
+    private final List<OutboundStage> outboundStages = new ArrayList<>();
+
+    private final List<byte[]> encoded = new ArrayList<>();
+
+    private OnMessageListener<? super T> onMessageListener;
+
+    public synchronized CodecPipeline<T> addInbound(InboundHandler handler){
+        inboundStages.add(new InboundStage(inboundStages.size(), handler));
+        return this;
+    }
+
+    public synchronized CodecPipeline<T> addOutbound(OutboundHandler handler){
+        outboundStages.add(new OutboundStage(outboundStages.size(), handler));
+        return this;
+    }
+
+    public synchronized CodecPipeline<T> setOnMessageListener(OnMessageListener<? super T> onMessageListener){
+        this.onMessageListener = onMessageListener;
+        return this;
+    }
+
+    //解码出错时丢弃所有入站级未完成的状态，从下一个帧边界重新开始
+    @Override
+    public synchronized void onReceive(byte[] bytes) {
+        if (bytes == null || bytes.length == 0){
+            return;
+        }
+        try {
+            fireRead(0, bytes);
+        } catch (CodecException e) {
+            reset();
+            if (onMessageListener != null){
+                onMessageListener.onError(e);
+            }
+        }
+    }
+
+    //连接断开或者重新订阅前调用
+    public synchronized void reset(){
+        for (InboundStage stage : inboundStages){
+            stage.handler.reset();
+        }
+    }
+
+    //出站级输出多段时按顺序拼接
+    public synchronized byte[] encode(Object message) throws CodecException {
+        encoded.clear();
+        try {
+            fireWrite(0, message);
+            if (encoded.size() == 1){
+                return encoded.get(0);
+            }
+            int length = 0;
+            for (byte[] bytes : encoded){
+                length += bytes.length;
+            }
+            byte[] result = new byte[length];
+            int offset = 0;
+            for (byte[] bytes : encoded){
+                System.arraycopy(bytes, 0, result, offset, bytes.length);
+                offset += bytes.length;
+            }
+            return result;
+        } finally {
+            encoded.clear();
+        }
+    }
+
+    //编码后整段写入，超过MTU的部分由writeCharacteristic拆包
+    public BluetoothChannel.Operation write(BluetoothChannel bluetoothChannel, CharacteristicRef ref, Object message, BluetoothChannel.OnActionCallback callback){
+        return write(bluetoothChannel, ref, message, Priority.INTERACTIVE, callback);
+    }
+
+    public BluetoothChannel.Operation write(BluetoothChannel bluetoothChannel, CharacteristicRef ref, Object message, Priority priority, BluetoothChannel.OnActionCallback callback){
+        byte[] bytes;
+        try {
+            bytes = encode(message);
+        } catch (CodecException e) {
+            callback.onError(e.getMessage(), CODE_ENCODE);
+            return new BluetoothChannel.Operation(null);
+        }
+        return bluetoothChannel.writeCharacteristic(ref, bytes, priority, callback);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fireRead(int index, Object message) throws CodecException {
+        if (index == inboundStages.size()){
+            if (onMessageListener != null){
+                onMessageListener.onMessage((T) message);
+            }
+            return;
+        }
+        InboundStage stage = inboundStages.get(index);
+        stage.handler.read(message, stage);
+    }
+
+    private void fireWrite(int index, Object message) throws CodecException {
+        if (index == outboundStages.size()){
+            if (!(message instanceof byte[])){
+                throw new CodecException("outbound pipeline must end with byte[]: " + (message == null ? null : message.getClass().getName()));
+            }
+            encoded.add((byte[]) message);
+            return;
+        }
+        OutboundStage stage = outboundStages.get(index);
+        stage.handler.write(message, stage);
+    }
+
+    static byte[] toBytes(Object message) throws CodecException {
+        if (!(message instanceof byte[])){
+            throw new CodecException("expect byte[]: " + (message == null ? null : message.getClass().getName()));
+        }
+        return (byte[]) message;
+    }
+
+    //每一级的输出直接交给下一级，不经过中间队列
+    private class InboundStage implements Output {
+
+        private final int index;
+
+        private final InboundHandler handler;
+
+        InboundStage(int index, InboundHandler handler) {
+            this.index = index;
+            this.handler = handler;
+        }
+
+        @Override
+        public void add(Object message) throws CodecException {
+            fireRead(index + 1, message);
+        }
+    }
+
+    private class OutboundStage implements Output {
+
+        private final int index;
+
+        private final OutboundHandler handler;
+
+        OutboundStage(int index, OutboundHandler handler) {
+            this.index = index;
+            this.handler = handler;
+        }
+
+        @Override
+        public void add(Object message) throws CodecException {
+            fireWrite(index + 1, message);
+        }
+    }
+
+    public abstract static class InboundHandler {
+
+        public abstract void read(Object message, Output out) throws CodecException;
+
+        //丢弃未解完的数据
+        public void reset(){
+
+        }
+    }
+
+    public abstract static class OutboundHandler {
+
+        public abstract void write(Object message, Output out) throws CodecException;
+    }
+
+    public interface Output {
+        void add(Object message) throws CodecException;
+    }
+
+    public interface OnMessageListener<T> {
+        void onMessage(T message);
+        void onError(CodecException e);
+    }
+
+    public static class CodecException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        public CodecException(String message) {
+            super(message);
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.xq.bluetoothcom;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+//跨设备的连接调度：最多同时进行maxConcurrent个连接尝试，每个尝试都有独立的超时，
+//按加入顺序执行，同一个设备同时只占用一个名额，一个卡住的connectGatt不会拖住其它设备
+class ConnectScheduler {
+
+    static final int DEFAULT_MAX_CONCURRENT = 3;
+
+    private final Executor executor;
+
+    private final TimerWheel timerWheel;
+
+    private final Object lock = new Object();
+
+    private final ArrayDeque<Attempt> pendingQueue = new ArrayDeque<>();
+
+    private final Set<Attempt> runningSet = new HashSet<>();
+
+    private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+
+    public ConnectScheduler(Executor executor) {
+        this(executor, TimerWheel.shared());
+    }
+
+    ConnectScheduler(Executor executor, TimerWheel timerWheel) {
+        this.executor = executor;
+        this.timerWheel = timerWheel;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent){
+        if (maxConcurrent <= 0){
+            throw new IllegalArgumentException("maxConcurrent must be greater than 0");
+        }
+        synchronized (lock){
+            this.maxConcurrent = maxConcurrent;
+            scheduleNext();
+        }
+    }
+
+    public boolean join(int outTime, Attempt attempt){
+        synchronized (lock){
+            if (containAttempt(attempt)){
+                return false;
+            }
+            attempt.outTime = outTime;
+            pendingQueue.offer(attempt);
+            scheduleNext();
+            return true;
+        }
+    }
+
+    //返回false说明这个尝试已经超时或者已经离开了
+    public boolean leave(Attempt attempt){
+        synchronized (lock){
+            if (runningSet.remove(attempt)){
+                if (attempt.timeout != null){
+                    attempt.timeout.cancel();
+                    attempt.timeout = null;
+                }
+                scheduleNext();
+                return true;
+            }
+            return pendingQueue.remove(attempt);
+        }
+    }
+
+    public boolean contain(Attempt attempt){
+        synchronized (lock){
+            return containAttempt(attempt);
+        }
+    }
+
+    private boolean containAttempt(Attempt attempt){
+        return runningSet.contains(attempt) || pendingQueue.contains(attempt);
+    }
+
+    //必须持有lock调用
+    private void scheduleNext(){
+        Iterator<Attempt> iterator = pendingQueue.iterator();
+        while (runningSet.size() < maxConcurrent && iterator.hasNext()){
+            final Attempt attempt = iterator.next();
+            if (isDeviceRunning(attempt.device)){
+                continue;
+            }
+            iterator.remove();
+            runningSet.add(attempt);
+            if (attempt.outTime != Integer.MAX_VALUE){
+                attempt.timeout = timerWheel.newTimeout(new Runnable() {
+                    @Override
+                    public void run() {
+                        onAttemptTimeout(attempt);
+                    }
+                }, attempt.outTime);
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (contain(attempt)){
+                            attempt.run();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                //executor拒绝时释放占用，不然这个设备之后的连接会一直排队
+                runningSet.remove(attempt);
+                if (attempt.timeout != null){
+                    attempt.timeout.cancel();
+                    attempt.timeout = null;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private boolean isDeviceRunning(String device){
+        for (Attempt attempt : runningSet){
+            if (attempt.device.equals(device)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onAttemptTimeout(final Attempt attempt){
+        synchronized (lock){
+            if (!runningSet.remove(attempt)){
+                return;
+            }
+            attempt.timeout = null;
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        attempt.onTimeout();
+                    }
+                });
+            } finally {
+                scheduleNext();
+            }
+        }
+    }
+
+    public abstract class Attempt implements Runnable {
+
+        private final String device;
+
+        private int outTime;
+
+        private TimerWheel.Timeout timeout;
+
+        public Attempt(String device) {
+            this.device = device;
+        }
+
+        public void onTimeout(){
+
+        }
+
+        public boolean leave(){
+            return ConnectScheduler.this.leave(this);
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.xq.bluetoothcom;
+
+import java.util.UUID;
+
+//预先解析好的描述符引用，见CharacteristicRef
+public final class DescriptorRef {
+
+    private final CharacteristicRef characteristicRef;
+
+    private final UUID descriptorUUID;
+
+    public DescriptorRef(CharacteristicRef characteristicRef, UUID descriptorUUID) {
+        if (characteristicRef == null || descriptorUUID == null){
+            throw new NullPointerException("ref == null");
+        }
+        this.characteristicRef = characteristicRef;
+        this.descriptorUUID = descriptorUUID;
+    }
+
+    public static DescriptorRef of(String serviceUUID, String characterUUID, String descriptorUUID){
+        return new DescriptorRef(CharacteristicRef.of(serviceUUID, characterUUID), UUID.fromString(descriptorUUID));
+    }
+
+    public CharacteristicRef getCharacteristicRef() {
+        return characteristicRef;
+    }
+
+    public UUID getDescriptorUUID() {
+        return descriptorUUID;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DescriptorRef)) return false;
+        DescriptorRef that = (DescriptorRef) o;
+        return characteristicRef.equals(that.characteristicRef) && descriptorUUID.equals(that.descriptorUUID);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * characteristicRef.hashCode() + descriptorUUID.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return characteristicRef + "/" + descriptorUUID;
+    }
+}
@@ -0,0 +1,127 @@
+package com.xq.bluetoothcom;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+//按MAC登记正在连接和已连接的设备。查找不加锁，状态只通过CAS迁移，
+//同一时刻每个MAC最多一个未关闭的Entry，同一设备重复的connect会合并到已有的Entry上。
+//T为每次连接尝试的数据，L为连接结果的监听
+class DeviceRegistry<T, L> {
+
+    private final ConcurrentHashMap<String, Entry<T, L>> entries = new ConcurrentHashMap<>();
+
+    //登记成功返回null，该设备已有未关闭的Entry时返回它
+    Entry<T, L> register(Entry<T, L> entry){
+        while (true){
+            Entry<T, L> existing = entries.putIfAbsent(entry.device, entry);
+            if (existing == null){
+                return null;
+            }
+            if (existing.getState() != DeviceState.CLOSING){
+                return existing;
+            }
+            //旧Entry已经在关闭，只是还没从表里删掉
+            if (entries.replace(entry.device, existing, entry)){
+                return null;
+            }
+        }
+    }
+
+    Entry<T, L> get(String device){
+        return entries.get(device);
+    }
+
+    DeviceState getState(String device){
+        Entry<T, L> entry = entries.get(device);
+        return entry == null ? DeviceState.IDLE : entry.getState();
+    }
+
+    //只有把Entry迁移到CLOSING的那一次调用返回true，由调用方负责后续的清理和回调
+    boolean remove(Entry<T, L> entry){
+        if (!entry.close()){
+            return false;
+        }
+        entries.remove(entry.device, entry);
+        return true;
+    }
+
+    //返回被移除的Entry，没有或者已经在被别的调用移除时返回null
+    Entry<T, L> remove(String device){
+        Entry<T, L> entry = entries.get(device);
+        return entry != null && remove(entry) ? entry : null;
+    }
+
+    Collection<Entry<T, L>> entries(){
+        return entries.values();
+    }
+
+    static final class Entry<T, L> {
+
+        private final String device;
+
+        private final AtomicReference<DeviceState> state = new AtomicReference<>(DeviceState.CONNECTING);
+
+        //当前这次连接尝试的数据，重试时替换
+        private volatile T value;
+
+        //合并进来的connect的监听，只在CONNECTING和DISCOVERING期间收集
+        private List<L> waiters = new ArrayList<>();
+
+        Entry(String device) {
+            this.device = device;
+        }
+
+        String getDevice() {
+            return device;
+        }
+
+        DeviceState getState(){
+            return state.get();
+        }
+
+        boolean transition(DeviceState expect, DeviceState update){
+            return state.compareAndSet(expect, update);
+        }
+
+        T get() {
+            return value;
+        }
+
+        void set(T value) {
+            this.value = value;
+        }
+
+        private boolean close(){
+            while (true){
+                DeviceState current = state.get();
+                if (current == DeviceState.CLOSING){
+                    return false;
+                }
+                if (state.compareAndSet(current, DeviceState.CLOSING)){
+                    return true;
+                }
+            }
+        }
+
+        //返回false说明已经有结果了，调用方根据当前状态自行处理
+        synchronized boolean addWaiter(L listener){
+            DeviceState current = state.get();
+            if (waiters == null || (current != DeviceState.CONNECTING && current != DeviceState.DISCOVERING)){
+                return false;
+            }
+            waiters.add(listener);
+            return true;
+        }
+
+        //在迁移到READY或CLOSING之后调用，之后addWaiter都会返回false
+        synchronized List<L> drainWaiters(){
+            List<L> waiters = this.waiters;
+            this.waiters = null;
+            return waiters == null ? new ArrayList<L>() : waiters;
+        }
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.xq.bluetoothcom;
+
+//设备在BluetoothCom中的连接状态。一般按顺序前进，但重连时会从DISCOVERING退回CONNECTING；
+//任何状态都可以直接进入CLOSING，连接失败或断开后回到IDLE
+public enum DeviceState {
+    //没有连接，也没有在连接
+    IDLE,
+    //连接尝试中，包括两次重试之间的等待
+    CONNECTING,
+    //已连接，正在发现服务和协商MTU
+    DISCOVERING,
+    //通道已经交付
+    READY,
+    //正在断开，随后回到IDLE
+    CLOSING,
+}
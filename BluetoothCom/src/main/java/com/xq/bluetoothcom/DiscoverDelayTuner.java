@@ -0,0 +1,132 @@
+package com.xq.bluetoothcom;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//按设备学习连接成功后到discoverServices之间最短的可靠延迟。
+//只统计按当前学到的延迟进行的最近WINDOW次尝试：窗口填满且失败不超过SHRINK_MAX_FAILURES次才缩短一步，
+//窗口内失败达到GROW_FAILURES次就加长，偶发的一次失败不会让学到的值翻倍。学到的值和窗口保存在SharedPreferences中
+class DiscoverDelayTuner {
+
+    static final int INITIAL_DELAY = 600;
+
+    //刚连上立即discoverServices在不少机型上会没有回调，不再往下缩短
+    static final int MIN_DELAY = 200;
+
+    static final int MAX_DELAY = 5*1000;
+
+    private static final int SHRINK_STEP = 100;
+
+    private static final int GROW_STEP = 200;
+
+    //窗口用int的低位记录，1为成功
+    private static final int WINDOW = 16;
+
+    private static final int SHRINK_MAX_FAILURES = 1;
+
+    private static final int GROW_FAILURES = 3;
+
+    private static final String KEY_DELAY = "delay_";
+
+    private static final String KEY_WINDOW = "window_";
+
+    private static final String KEY_SAMPLES = "samples_";
+
+    private final SharedPreferences preferences;
+
+    private final Map<String, State> stateMap = new HashMap<>();
+
+    DiscoverDelayTuner(SharedPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    synchronized int getDelay(String device){
+        return getState(device).delay;
+    }
+
+    //在delay下发现服务成功
+    synchronized void onSuccess(String device, int delay){
+        State state = getState(device);
+        //只统计按当前学到的值进行的尝试，失败后加长延迟重试成功的不算
+        if (delay != state.delay){
+            return;
+        }
+        state.add(true);
+        if (state.samples >= WINDOW && state.failures() <= SHRINK_MAX_FAILURES && state.delay > MIN_DELAY){
+            state.reset(Math.max(MIN_DELAY, state.delay - SHRINK_STEP));
+        }
+        save(device, state);
+    }
+
+    //在delay下发现服务失败，返回下一次重试应该使用的延迟
+    synchronized int onFailure(String device, int delay){
+        State state = getState(device);
+        int longer = Math.min(MAX_DELAY, Math.max(delay*2, delay + GROW_STEP));
+        if (delay == state.delay){
+            state.add(false);
+            if (state.failures() >= GROW_FAILURES){
+                state.reset(longer);
+            }
+            save(device, state);
+        }
+        return longer;
+    }
+
+    //当前延迟下最近的成功率，没有样本时返回1
+    synchronized float getSuccessRate(String device){
+        State state = getState(device);
+        return state.samples == 0 ? 1 : (state.samples - state.failures()) / (float) state.samples;
+    }
+
+    private State getState(String device){
+        State state = stateMap.get(device);
+        if (state == null){
+            state = new State();
+            state.delay = Math.max(MIN_DELAY, preferences.getInt(KEY_DELAY + device, INITIAL_DELAY));
+            state.window = preferences.getInt(KEY_WINDOW + device, 0);
+            state.samples = Math.min(WINDOW, preferences.getInt(KEY_SAMPLES + device, 0));
+            stateMap.put(device, state);
+        }
+        return state;
+    }
+
+    private void save(String device, State state){
+        preferences.edit()
+                .putInt(KEY_DELAY + device, state.delay)
+                .putInt(KEY_WINDOW + device, state.window)
+                .putInt(KEY_SAMPLES + device, state.samples)
+                .apply();
+    }
+
+    private static class State {
+
+        private int delay;
+
+        //最近WINDOW次结果，最低位是最新的一次
+        private int window;
+
+        private int samples;
+
+        private void add(boolean success){
+            window = (window << 1) | (success ? 1 : 0);
+            if (samples < WINDOW){
+                samples++;
+            }
+        }
+
+        private int failures(){
+            int mask = samples >= 32 ? -1 : (1 << samples) - 1;
+            return samples - Integer.bitCount(window & mask);
+        }
+
+        //延迟变化后之前的样本不再有意义
+        private void reset(int delay){
+            this.delay = delay;
+            window = 0;
+            samples = 0;
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.xq.bluetoothcom;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+//指数退避 + 全抖动：第n次重试等待[0, min(maxDelay, baseDelay*2^(n-1))]内的随机时间，
+//避免大量手机同时对同一批不在范围内的设备同步重连。
+//同一设备连续failureThreshold次connect失败后熔断openDuration，熔断期满进入半开状态只放行一次试探，
+//试探结果回来之前其余的connect仍然拒绝；试探再失败则熔断时间翻倍（不超过maxOpenDuration），成功一次即恢复。
+//试探一直没有结果时，再过一个熔断时间会重新放行。
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+    private static final long DEFAULT_BASE_DELAY = 1000;
+
+    private static final long DEFAULT_MAX_DELAY = 8*1000;
+
+    private static final long DEFAULT_MAX_ELAPSED = 2*60*1000;
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+    private static final long DEFAULT_OPEN_DURATION = 60*1000;
+
+    private static final long DEFAULT_MAX_OPEN_DURATION = 10*60*1000;
+
+    private final Clock clock;
+
+    private final Random random;
+
+    private final Map<String, Breaker> breakerMap = new HashMap<>();
+
+    private long baseDelay = DEFAULT_BASE_DELAY;
+
+    private long maxDelay = DEFAULT_MAX_DELAY;
+
+    private long maxElapsed = DEFAULT_MAX_ELAPSED;
+
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+    private long openDuration = DEFAULT_OPEN_DURATION;
+
+    private long maxOpenDuration = DEFAULT_MAX_OPEN_DURATION;
+
+    public ExponentialBackoffRetryPolicy() {
+        this(Clock.SYSTEM, new Random());
+    }
+
+    //测试时传入假时钟和固定种子的Random即可得到确定的结果
+    public ExponentialBackoffRetryPolicy(Clock clock, Random random) {
+        this.clock = clock;
+        this.random = random;
+    }
+
+    public synchronized ExponentialBackoffRetryPolicy setDelay(long baseDelay, long maxDelay) {
+        if (baseDelay <= 0 || maxDelay < baseDelay){
+            throw new IllegalArgumentException("require 0 < baseDelay <= maxDelay");
+        }
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        return this;
+    }
+
+    public synchronized ExponentialBackoffRetryPolicy setMaxElapsed(long maxElapsed) {
+        this.maxElapsed = maxElapsed;
+        return this;
+    }
+
+    //failureThreshold小于等于0时关闭熔断
+    public synchronized ExponentialBackoffRetryPolicy setCircuitBreaker(int failureThreshold, long openDuration, long maxOpenDuration) {
+        if (openDuration <= 0 || maxOpenDuration < openDuration){
+            throw new IllegalArgumentException("require 0 < openDuration <= maxOpenDuration");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.maxOpenDuration = maxOpenDuration;
+        return this;
+    }
+
+    @Override
+    public synchronized boolean allowConnect(String device) {
+        Breaker breaker = breakerMap.get(device);
+        if (breaker == null || breaker.openUntil == 0){
+            return true;
+        }
+        long now = clock.uptimeMillis();
+        if (now < breaker.openUntil){
+            return false;
+        }
+        //半开，放行这一次
+        breaker.openUntil = now + breaker.openDuration;
+        return true;
+    }
+
+    @Override
+    public synchronized long nextDelay(String device, int retryCount, long elapsed) {
+        if (elapsed >= maxElapsed){
+            return STOP;
+        }
+        //避免移位溢出，超过30次早已达到maxDelay
+        long ceiling = retryCount > 30 ? maxDelay : Math.min(maxDelay, baseDelay << (Math.max(retryCount, 1) - 1));
+        long delay = (long) (random.nextDouble() * (ceiling + 1));
+        return elapsed + delay >= maxElapsed ? STOP : delay;
+    }
+
+    @Override
+    public synchronized void onSuccess(String device) {
+        breakerMap.remove(device);
+    }
+
+    @Override
+    public synchronized void onFailure(String device) {
+        if (failureThreshold <= 0){
+            return;
+        }
+        Breaker breaker = breakerMap.get(device);
+        if (breaker == null){
+            breaker = new Breaker();
+            breakerMap.put(device, breaker);
+        }
+        breaker.failures++;
+        if (breaker.failures >= failureThreshold){
+            breaker.openDuration = breaker.openDuration == 0 ? openDuration : Math.min(breaker.openDuration*2, maxOpenDuration);
+            breaker.openUntil = clock.uptimeMillis() + breaker.openDuration;
+        }
+    }
+
+    //熔断中的剩余时间，未熔断返回0
+    public synchronized long getOpenRemaining(String device) {
+        Breaker breaker = breakerMap.get(device);
+        return breaker == null ? 0 : Math.max(0, breaker.openUntil - clock.uptimeMillis());
+    }
+
+    private static class Breaker {
+
+        private int failures;
+
+        private long openDuration;
+
+        private long openUntil;
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.xq.bluetoothcom;
+
+//把按MTU拆开的通知重新拼成完整的帧。帧格式：2字节大端长度 + 数据，对应BluetoothChannel.writeFrame
+public class FrameAssembler implements BluetoothChannel.OnReceiveListener {
+
+    private static final int HEADER_SIZE = 2;
+
+    public static final int MAX_FRAME_SIZE = 0xFFFF;
+
+    private final BluetoothChannel.OnReceiveListener frameListener;
+
+    private byte[] buffer = new byte[64];
+
+    private int length;
+
+    public FrameAssembler(BluetoothChannel.OnReceiveListener frameListener) {
+        this.frameListener = frameListener;
+    }
+
+    public static byte[] encode(byte[] payload){
+        if (payload.length > MAX_FRAME_SIZE){
+            throw new IllegalArgumentException("frame too large: " + payload.length);
+        }
+        byte[] frame = new byte[HEADER_SIZE + payload.length];
+        frame[0] = (byte) (payload.length >> 8);
+        frame[1] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, HEADER_SIZE, payload.length);
+        return frame;
+    }
+
+    @Override
+    public void onReceive(byte[] bytes) {
+        if (bytes == null || bytes.length == 0){
+            return;
+        }
+        synchronized (this){
+            ensureCapacity(length + bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+        byte[] frame;
+        while ((frame = pollFrame()) != null){
+            frameListener.onReceive(frame);
+        }
+    }
+
+    //连接断开或者数据错乱时丢弃未拼完的数据
+    public synchronized void reset(){
+        length = 0;
+    }
+
+    private synchronized byte[] pollFrame(){
+        if (length < HEADER_SIZE){
+            return null;
+        }
+        int frameSize = ((buffer[0] & 0xFF) << 8) | (buffer[1] & 0xFF);
+        if (length < HEADER_SIZE + frameSize){
+            return null;
+        }
+        byte[] frame = new byte[frameSize];
+        System.arraycopy(buffer, HEADER_SIZE, frame, 0, frameSize);
+        length -= HEADER_SIZE + frameSize;
+        System.arraycopy(buffer, HEADER_SIZE + frameSize, buffer, 0, length);
+        return frame;
+    }
+
+    private void ensureCapacity(int capacity){
+        if (capacity > buffer.length){
+            int newLength = buffer.length;
+            while (newLength < capacity){
+                newLength <<= 1;
+            }
+            byte[] newBuffer = new byte[newLength];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+
+}
@@ -7,10 +7,11 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.util.Log;
 
-import java.util.ArrayList;
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
 
 class GattCallbackDispatcher extends BluetoothGattCallback {
 
@@ -20,36 +21,119 @@ class GattCallbackDispatcher extends BluetoothGattCallback {
         tag = "GattCallbackDispatcher" + "-" + mac;
     }
 
-    private final Set<BluetoothGattCallback> gattCallbacks = new LinkedHashSet<>();
+    private static final BluetoothGattCallback[] EMPTY_CALLBACKS = new BluetoothGattCallback[0];
+
+    //通知日志频率很高，默认只打印INFO及以上，需要时再调低
+    private static volatile int logLevel = Log.INFO;
+
+    public static void setLogLevel(int level){
+        logLevel = level;
+    }
+
+    private static boolean isLoggable(int level){
+        return level >= logLevel;
+    }
+
+    //写时复制：注册/注销时整体替换数组，回调分发时直接遍历快照，不加锁也不分配内存
+    private final Object lock = new Object();
+
+    private volatile BluetoothGattCallback[] gattCallbacks = EMPTY_CALLBACKS;
+
+    //按特征值UUID索引的通知回调，通知只会分发给对应特征值的监听
+    private volatile Map<UUID, BluetoothGattCallback[]> notifyCallbacks = Collections.emptyMap();
 
     public boolean registerGattCallback(BluetoothGattCallback gattCallback){
-        synchronized (gattCallbacks){
-            return gattCallbacks.add(gattCallback);
+        synchronized (lock){
+            BluetoothGattCallback[] callbacks = add(gattCallbacks, gattCallback);
+            if (callbacks == null){
+                return false;
+            }
+            gattCallbacks = callbacks;
+            return true;
         }
     }
 
     public boolean unregisterGattCallback(BluetoothGattCallback gattCallback){
-        synchronized (gattCallbacks){
-            return gattCallbacks.remove(gattCallback);
+        synchronized (lock){
+            BluetoothGattCallback[] callbacks = remove(gattCallbacks, gattCallback);
+            if (callbacks == null){
+                return false;
+            }
+            gattCallbacks = callbacks;
+            return true;
+        }
+    }
+
+    public boolean registerNotifyCallback(UUID characterUUID, BluetoothGattCallback gattCallback){
+        synchronized (lock){
+            BluetoothGattCallback[] old = notifyCallbacks.get(characterUUID);
+            BluetoothGattCallback[] callbacks = add(old == null ? EMPTY_CALLBACKS : old, gattCallback);
+            if (callbacks == null){
+                return false;
+            }
+            Map<UUID, BluetoothGattCallback[]> map = new HashMap<>(notifyCallbacks);
+            map.put(characterUUID, callbacks);
+            notifyCallbacks = map;
+            return true;
+        }
+    }
+
+    public boolean unregisterNotifyCallback(UUID characterUUID, BluetoothGattCallback gattCallback){
+        synchronized (lock){
+            BluetoothGattCallback[] old = notifyCallbacks.get(characterUUID);
+            BluetoothGattCallback[] callbacks = old == null ? null : remove(old, gattCallback);
+            if (callbacks == null){
+                return false;
+            }
+            Map<UUID, BluetoothGattCallback[]> map = new HashMap<>(notifyCallbacks);
+            if (callbacks.length == 0){
+                map.remove(characterUUID);
+            } else {
+                map.put(characterUUID, callbacks);
+            }
+            notifyCallbacks = map;
+            return true;
         }
     }
 
     public void clearGattCallback(){
-        gattCallbacks.clear();
+        synchronized (lock){
+            gattCallbacks = EMPTY_CALLBACKS;
+            notifyCallbacks = Collections.emptyMap();
+        }
+    }
+
+    private static BluetoothGattCallback[] add(BluetoothGattCallback[] callbacks, BluetoothGattCallback gattCallback){
+        for (BluetoothGattCallback callback : callbacks){
+            if (callback == gattCallback){
+                return null;
+            }
+        }
+        BluetoothGattCallback[] newCallbacks = Arrays.copyOf(callbacks, callbacks.length + 1);
+        newCallbacks[callbacks.length] = gattCallback;
+        return newCallbacks;
     }
 
-    private List<BluetoothGattCallback> syncGetAllGattCallback(){
-        synchronized (gattCallbacks){
-            return new ArrayList<>(gattCallbacks);
+    private static BluetoothGattCallback[] remove(BluetoothGattCallback[] callbacks, BluetoothGattCallback gattCallback){
+        for (int i = 0; i < callbacks.length; i++){
+            if (callbacks[i] == gattCallback){
+                BluetoothGattCallback[] newCallbacks = new BluetoothGattCallback[callbacks.length - 1];
+                System.arraycopy(callbacks, 0, newCallbacks, 0, i);
+                System.arraycopy(callbacks, i + 1, newCallbacks, i, callbacks.length - i - 1);
+                return newCallbacks;
+            }
         }
+        return null;
     }
 
     @SuppressLint("NewApi")
     @Override
     public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
         super.onPhyUpdate(gatt, txPhy, rxPhy, status);
-        Log.i(tag, String.format("onPhyUpdate: txPhy=%s, rxPhy=%s, status=%s",txPhy,rxPhy,status));
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.INFO)){
+            Log.i(tag, String.format("onPhyUpdate: txPhy=%s, rxPhy=%s, status=%s",txPhy,rxPhy,status));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onPhyUpdate(gatt, txPhy, rxPhy, status);
         }
     }
@@ -58,8 +142,10 @@ class GattCallbackDispatcher extends BluetoothGattCallback {
     @Override
     public void onPhyRead(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
         super.onPhyRead(gatt, txPhy, rxPhy, status);
-        Log.i(tag, String.format("onPhyRead: txPhy=%s, rxPhy=%s, status=%s",txPhy,rxPhy,status));
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.INFO)){
+            Log.i(tag, String.format("onPhyRead: txPhy=%s, rxPhy=%s, status=%s",txPhy,rxPhy,status));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onPhyRead(gatt, txPhy, rxPhy, status);
         }
     }
@@ -67,8 +153,10 @@ class GattCallbackDispatcher extends BluetoothGattCallback {
     @Override
     public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
         super.onConnectionStateChange(gatt, status, newState);
-        Log.d(tag, String.format("onConnectionStateChange: status=%s , newState=%s", status, newState));
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.DEBUG)){
+            Log.d(tag, String.format("onConnectionStateChange: status=%s , newState=%s", status, newState));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onConnectionStateChange(gatt, status, newState);
         }
     }
@@ -76,8 +164,10 @@ class GattCallbackDispatcher extends BluetoothGattCallback {
     @Override
     public void onServicesDiscovered(BluetoothGatt gatt, int status) {
         super.onServicesDiscovered(gatt, status);
-        Log.d(tag, String.format("onServicesDiscovered: status=%s", status));
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.DEBUG)){
+            Log.d(tag, String.format("onServicesDiscovered: status=%s", status));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onServicesDiscovered(gatt, status);
         }
     }
@@ -85,17 +175,22 @@ class GattCallbackDispatcher extends BluetoothGattCallback {
     @Override
     public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         super.onCharacteristicRead(gatt, characteristic, status);
-        Log.i(tag, String.format("onCharacteristicRead: status=%s, values=%s",status,bytes2HexString(characteristic.getValue())));
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.INFO)){
+            Log.i(tag, String.format("onCharacteristicRead: status=%s, values=%s",status,bytes2HexString(characteristic.getValue())));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onCharacteristicRead(gatt, characteristic, status);
         }
     }
 
+    //同onCharacteristicChanged，API 33的新方法不调用super
     @SuppressLint("NewApi")
     @Override
     public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] value, int status) {
-        super.onCharacteristicRead(gatt, characteristic, value, status);
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.INFO)){
+            Log.i(tag, String.format("onCharacteristicRead: status=%s, values=%s",status,bytes2HexString(value)));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onCharacteristicRead(gatt, characteristic, value, status);
         }
     }
@@ -103,8 +198,10 @@ class GattCallbackDispatcher extends BluetoothGattCallback {
     @Override
     public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         super.onCharacteristicWrite(gatt, characteristic, status);
-        Log.i(tag, String.format("onCharacteristicWrite: status=%s, values=%s",status,bytes2HexString(characteristic.getValue())));
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.INFO)){
+            Log.i(tag, String.format("onCharacteristicWrite: status=%s, values=%s",status,bytes2HexString(characteristic.getValue())));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onCharacteristicWrite(gatt, characteristic, status);
         }
     }
@@ -112,35 +209,57 @@ class GattCallbackDispatcher extends BluetoothGattCallback {
     @Override
     public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
         super.onCharacteristicChanged(gatt, characteristic);
-        Log.i(tag,String.format("onCharacteristicChanged : values=%s", bytes2HexString(characteristic.getValue())));
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.VERBOSE)){
+            Log.v(tag,String.format("onCharacteristicChanged : values=%s", bytes2HexString(characteristic.getValue())));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onCharacteristicChanged(gatt, characteristic);
         }
+        BluetoothGattCallback[] callbacks = notifyCallbacks.get(characteristic.getUuid());
+        if (callbacks != null){
+            for (BluetoothGattCallback gattCallback : callbacks){
+                gattCallback.onCharacteristicChanged(gatt, characteristic);
+            }
+        }
     }
 
+    //API 33以上系统只回调这个方法，父类默认实现会再转调上面的旧方法，所以这里不调用super，避免重复分发
     @SuppressLint("NewApi")
     @Override
     public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] value) {
-        super.onCharacteristicChanged(gatt, characteristic, value);
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.VERBOSE)){
+            Log.v(tag,String.format("onCharacteristicChanged : values=%s", bytes2HexString(value)));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onCharacteristicChanged(gatt, characteristic, value);
         }
+        BluetoothGattCallback[] callbacks = notifyCallbacks.get(characteristic.getUuid());
+        if (callbacks != null){
+            for (BluetoothGattCallback gattCallback : callbacks){
+                gattCallback.onCharacteristicChanged(gatt, characteristic, value);
+            }
+        }
     }
 
     @Override
     public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
         super.onDescriptorRead(gatt, descriptor, status);
-        Log.i(tag, String.format("onDescriptorRead: status=%s, values=%s",status,bytes2HexString(descriptor.getValue())));
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.INFO)){
+            Log.i(tag, String.format("onDescriptorRead: status=%s, values=%s",status,bytes2HexString(descriptor.getValue())));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onDescriptorRead(gatt, descriptor, status);
         }
     }
 
+    //同onCharacteristicChanged，API 33的新方法不调用super
     @SuppressLint("NewApi")
     @Override
     public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status, byte[] value) {
-        super.onDescriptorRead(gatt, descriptor, status, value);
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.INFO)){
+            Log.i(tag, String.format("onDescriptorRead: status=%s, values=%s",status,bytes2HexString(value)));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onDescriptorRead(gatt, descriptor, status, value);
         }
     }
@@ -148,8 +267,10 @@ class GattCallbackDispatcher extends BluetoothGattCallback {
     @Override
     public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
         super.onDescriptorWrite(gatt, descriptor, status);
-        Log.i(tag, String.format("onDescriptorWrite: status=%s, values = %s",status,bytes2HexString(descriptor.getValue())));
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.INFO)){
+            Log.i(tag, String.format("onDescriptorWrite: status=%s, values = %s",status,bytes2HexString(descriptor.getValue())));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onDescriptorWrite(gatt, descriptor, status);
         }
     }
@@ -157,8 +278,10 @@ class GattCallbackDispatcher extends BluetoothGattCallback {
     @Override
     public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
         super.onReliableWriteCompleted(gatt, status);
-        Log.i(tag, String.format("onReliableWriteCompleted: status=%s",status));
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.INFO)){
+            Log.i(tag, String.format("onReliableWriteCompleted: status=%s",status));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onReliableWriteCompleted(gatt, status);
         }
     }
@@ -166,8 +289,10 @@ class GattCallbackDispatcher extends BluetoothGattCallback {
     @Override
     public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
         super.onReadRemoteRssi(gatt, rssi, status);
-        Log.i(tag, String.format("onReadRemoteRssi: rssi=%s, status=%s",rssi,status));
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.INFO)){
+            Log.i(tag, String.format("onReadRemoteRssi: rssi=%s, status=%s",rssi,status));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onReadRemoteRssi(gatt, rssi, status);
         }
     }
@@ -175,8 +300,10 @@ class GattCallbackDispatcher extends BluetoothGattCallback {
     @Override
     public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
         super.onMtuChanged(gatt, mtu, status);
-        Log.i(tag, String.format("onMtuChanged: mtu=%s, status=%s",mtu,status));
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.INFO)){
+            Log.i(tag, String.format("onMtuChanged: mtu=%s, status=%s",mtu,status));
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onMtuChanged(gatt, mtu, status);
         }
     }
@@ -185,8 +312,10 @@ class GattCallbackDispatcher extends BluetoothGattCallback {
     @Override
     public void onServiceChanged(BluetoothGatt gatt) {
         super.onServiceChanged(gatt);
-        Log.i(tag, "onServiceChanged: ");
-        for (BluetoothGattCallback gattCallback : syncGetAllGattCallback()){
+        if (isLoggable(Log.INFO)){
+            Log.i(tag, "onServiceChanged: ");
+        }
+        for (BluetoothGattCallback gattCallback : gattCallbacks){
             gattCallback.onServiceChanged(gatt);
         }
     }
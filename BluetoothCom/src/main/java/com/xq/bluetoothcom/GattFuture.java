@@ -0,0 +1,234 @@
+package com.xq.bluetoothcom;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//异步操作的结果。监听在完成的线程上同步执行（一般是蓝牙回调线程），
+//因此用then/compose串起来的操作会紧接着提交，中间没有切换到主线程的延迟
+public class GattFuture<T> {
+
+    //then/compose中的转换抛出异常时，下游以这个code失败，info为异常信息
+    public static final String CODE_EXCEPTION = "exception";
+
+    private List<Listener<? super T>> listeners = new ArrayList<>();
+
+    private boolean done;
+
+    private boolean success;
+
+    private T value;
+
+    private String errorInfo;
+
+    private String errorCode;
+
+    //由通道的异步接口设置，cancel时转调
+    private BluetoothChannel.Operation operation;
+
+    public static <T> GattFuture<T> succeeded(T value){
+        GattFuture<T> future = new GattFuture<>();
+        future.setSuccess(value);
+        return future;
+    }
+
+    public static <T> GattFuture<T> failed(String info, String code){
+        GattFuture<T> future = new GattFuture<>();
+        future.setError(info, code);
+        return future;
+    }
+
+    //返回false说明已经完成过了
+    public boolean setSuccess(T value){
+        List<Listener<? super T>> listeners;
+        synchronized (this){
+            if (done){
+                return false;
+            }
+            done = true;
+            success = true;
+            this.value = value;
+            operation = null;
+            listeners = this.listeners;
+            this.listeners = null;
+        }
+        for (Listener<? super T> listener : listeners){
+            listener.onSuccess(value);
+        }
+        return true;
+    }
+
+    public boolean setError(String info, String code){
+        List<Listener<? super T>> listeners;
+        synchronized (this){
+            if (done){
+                return false;
+            }
+            done = true;
+            operation = null;
+            errorInfo = info;
+            errorCode = code;
+            listeners = this.listeners;
+            this.listeners = null;
+        }
+        for (Listener<? super T> listener : listeners){
+            listener.onError(info, code);
+        }
+        return true;
+    }
+
+    //取消背后的通道操作，成功时future以CODE_CANCELLED失败。已经完成的、then/compose得到的future返回false
+    public boolean cancel(){
+        BluetoothChannel.Operation operation;
+        synchronized (this){
+            if (done){
+                return false;
+            }
+            operation = this.operation;
+        }
+        return operation != null && operation.cancel();
+    }
+
+    synchronized void setOperation(BluetoothChannel.Operation operation){
+        this.operation = operation;
+    }
+
+    //已经完成时立即在当前线程回调
+    public GattFuture<T> addListener(Listener<? super T> listener){
+        synchronized (this){
+            if (!done){
+                listeners.add(listener);
+                return this;
+            }
+        }
+        if (success){
+            listener.onSuccess(value);
+        } else {
+            listener.onError(errorInfo, errorCode);
+        }
+        return this;
+    }
+
+    //成功时转换结果，失败原样传递
+    public <R> GattFuture<R> then(final Transform<? super T, ? extends R> transform){
+        final GattFuture<R> future = new GattFuture<>();
+        addListener(new Listener<T>() {
+            @Override
+            public void onSuccess(T value) {
+                R result;
+                try {
+                    result = transform.apply(value);
+                } catch (RuntimeException e) {
+                    future.setError(e.toString(), CODE_EXCEPTION);
+                    return;
+                }
+                future.setSuccess(result);
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                future.setError(info, code);
+            }
+        });
+        return future;
+    }
+
+    //成功时发起下一个异步操作，返回的future在下一个操作完成时完成
+    public <R> GattFuture<R> compose(final Continuation<? super T, R> continuation){
+        final GattFuture<R> future = new GattFuture<>();
+        addListener(new Listener<T>() {
+            @Override
+            public void onSuccess(T value) {
+                GattFuture<R> next;
+                try {
+                    next = continuation.apply(value);
+                } catch (RuntimeException e) {
+                    future.setError(e.toString(), CODE_EXCEPTION);
+                    return;
+                }
+                if (next == null){
+                    future.setError("continuation returned null", CODE_EXCEPTION);
+                    return;
+                }
+                next.addListener(new Listener<R>() {
+                    @Override
+                    public void onSuccess(R value) {
+                        future.setSuccess(value);
+                    }
+
+                    @Override
+                    public void onError(String info, String code) {
+                        future.setError(info, code);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                future.setError(info, code);
+            }
+        });
+        return future;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized boolean isSuccess() {
+        return done && success;
+    }
+
+    public synchronized T getValue() {
+        return value;
+    }
+
+    public synchronized String getErrorInfo() {
+        return errorInfo;
+    }
+
+    public synchronized String getErrorCode() {
+        return errorCode;
+    }
+
+    BluetoothChannel.OnActionCallback toActionCallback(final T value){
+        return new BluetoothChannel.OnActionCallback() {
+            @Override
+            public void onSuccess() {
+                setSuccess(value);
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                setError(info, code);
+            }
+        };
+    }
+
+    static BluetoothChannel.OnReadCallback toReadCallback(final GattFuture<byte[]> future){
+        return new BluetoothChannel.OnReadCallback() {
+            @Override
+            public void onRead(byte[] bytes) {
+                future.setSuccess(bytes);
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                future.setError(info, code);
+            }
+        };
+    }
+
+    public interface Listener<T> {
+        void onSuccess(T value);
+        void onError(String info, String code);
+    }
+
+    public interface Transform<T, R> {
+        R apply(T value);
+    }
+
+    public interface Continuation<T, R> {
+        GattFuture<R> apply(T value);
+    }
+
+}
@@ -0,0 +1,227 @@
+package com.xq.bluetoothcom;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+//按MAC和固件版本缓存设备的服务/特征值/描述符布局，每个设备一个二进制文件。
+//Android不允许用缓存的布局直接构造可读写的句柄，句柄仍然来自discoverServices；
+//命中缓存说明设备布局稳定，协议栈一般也缓存了GATT数据库，连接后可以不等discoverDelay直接发现服务。
+//文件格式：MAGIC(4) + 格式版本(1) + 固件版本(UTF) + 布局长度(4) + 布局 + CRC32(8)
+public class GattLayoutCache {
+
+    private static final int MAGIC = 0x47415454;
+
+    //布局编码改变时递增，旧版本的文件会被当作未命中
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String SUFFIX = ".layout";
+
+    private final File dir;
+
+    private final FirmwareVersionProvider firmwareVersionProvider;
+
+    //已经读过的布局，避免每次连接都读文件
+    private final Map<String, byte[]> layoutMap = new HashMap<>();
+
+    public GattLayoutCache(Context context) {
+        this(context, null);
+    }
+
+    public GattLayoutCache(Context context, FirmwareVersionProvider firmwareVersionProvider) {
+        this(new File(context.getCacheDir(), "gatt_layout"), firmwareVersionProvider);
+    }
+
+    public GattLayoutCache(File dir, FirmwareVersionProvider firmwareVersionProvider) {
+        this.dir = dir;
+        this.firmwareVersionProvider = firmwareVersionProvider;
+    }
+
+    public boolean contains(BluetoothDevice device){
+        return getLayout(device.getAddress(), getFirmwareVersion(device)) != null;
+    }
+
+    //发现服务成功后调用，布局有变化时写入文件并返回true
+    public boolean update(BluetoothDevice device, List<BluetoothGattService> services){
+        if (services == null || services.isEmpty()){
+            return false;
+        }
+        String mac = device.getAddress();
+        String firmwareVersion = getFirmwareVersion(device);
+        byte[] layout = encode(services);
+        if (Arrays.equals(layout, getLayout(mac, firmwareVersion))){
+            return false;
+        }
+        synchronized (layoutMap){
+            layoutMap.put(key(mac, firmwareVersion), layout);
+        }
+        write(mac, firmwareVersion, layout);
+        return true;
+    }
+
+    public void remove(BluetoothDevice device){
+        String mac = device.getAddress();
+        synchronized (layoutMap){
+            layoutMap.remove(key(mac, getFirmwareVersion(device)));
+        }
+        fileOf(mac).delete();
+    }
+
+    public void clear(){
+        synchronized (layoutMap){
+            layoutMap.clear();
+        }
+        File[] files = dir.listFiles();
+        if (files != null){
+            for (File file : files){
+                file.delete();
+            }
+        }
+    }
+
+    private String getFirmwareVersion(BluetoothDevice device){
+        String firmwareVersion = firmwareVersionProvider == null ? null : firmwareVersionProvider.getFirmwareVersion(device);
+        return firmwareVersion == null ? "" : firmwareVersion;
+    }
+
+    private byte[] getLayout(String mac, String firmwareVersion){
+        String key = key(mac, firmwareVersion);
+        synchronized (layoutMap){
+            if (layoutMap.containsKey(key)){
+                return layoutMap.get(key);
+            }
+        }
+        byte[] layout = read(mac, firmwareVersion);
+        synchronized (layoutMap){
+            layoutMap.put(key, layout);
+        }
+        return layout;
+    }
+
+    private static String key(String mac, String firmwareVersion){
+        return mac + "/" + firmwareVersion;
+    }
+
+    private File fileOf(String mac){
+        return new File(dir, mac.replace(":", "") + SUFFIX);
+    }
+
+    //文件不存在、格式版本或固件版本不一致、校验失败都返回null
+    private byte[] read(String mac, String firmwareVersion){
+        File file = fileOf(mac);
+        if (!file.exists()){
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != FORMAT_VERSION || !firmwareVersion.equals(in.readUTF())){
+                return null;
+            }
+            byte[] layout = new byte[in.readInt()];
+            in.readFully(layout);
+            CRC32 crc32 = new CRC32();
+            crc32.update(layout);
+            return crc32.getValue() == in.readLong() ? layout : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    //先写临时文件再重命名，写到一半被杀掉也不会留下损坏的文件
+    private void write(String mac, String firmwareVersion, byte[] layout){
+        if (!dir.exists() && !dir.mkdirs()){
+            return;
+        }
+        File file = fileOf(mac);
+        File tmpFile = new File(dir, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tmpFile));
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeUTF(firmwareVersion);
+            out.writeInt(layout.length);
+            out.write(layout);
+            CRC32 crc32 = new CRC32();
+            crc32.update(layout);
+            out.writeLong(crc32.getValue());
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file)){
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            tmpFile.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    //服务数(2) + [服务UUID(16) + 类型(1) + 特征值数(2) + [特征值UUID(16) + 属性(4) + 描述符数(1) + [描述符UUID(16)]]]
+    static byte[] encode(List<BluetoothGattService> services){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(services.size());
+            for (BluetoothGattService service : services){
+                writeUUID(out, service.getUuid());
+                out.writeByte(service.getType());
+                List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+                out.writeShort(characteristics.size());
+                for (BluetoothGattCharacteristic characteristic : characteristics){
+                    writeUUID(out, characteristic.getUuid());
+                    out.writeInt(characteristic.getProperties());
+                    List<BluetoothGattDescriptor> descriptors = characteristic.getDescriptors();
+                    out.writeByte(descriptors.size());
+                    for (BluetoothGattDescriptor descriptor : descriptors){
+                        writeUUID(out, descriptor.getUuid());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            //ByteArrayOutputStream不会抛出IOException
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeUUID(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static void closeQuietly(Closeable closeable){
+        if (closeable != null){
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    //固件版本一般来自广播数据或上次连接时读到的版本号，不提供时只按MAC缓存
+    public interface FirmwareVersionProvider {
+        String getFirmwareVersion(BluetoothDevice device);
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.xq.bluetoothcom;
+
+import java.util.Arrays;
+
+//解码器共用的可增长缓冲。读走的数据只移动readIndex，写满时才把未读部分前移，仍然不够再扩容，
+//拼帧不会每来一包就重新分配和复制整个数组
+final class GrowableBuffer {
+
+    private byte[] array;
+
+    private int readIndex;
+
+    private int writeIndex;
+
+    GrowableBuffer(int initialCapacity) {
+        array = new byte[initialCapacity];
+    }
+
+    int readable(){
+        return writeIndex - readIndex;
+    }
+
+    //index相对于未读部分的起点
+    byte get(int index){
+        return array[readIndex + index];
+    }
+
+    void write(byte b){
+        ensureWritable(1);
+        array[writeIndex++] = b;
+    }
+
+    void write(byte[] bytes, int offset, int length){
+        ensureWritable(length);
+        System.arraycopy(bytes, offset, array, writeIndex, length);
+        writeIndex += length;
+    }
+
+    byte[] read(int length){
+        byte[] bytes = Arrays.copyOfRange(array, readIndex, readIndex + length);
+        skip(length);
+        return bytes;
+    }
+
+    void skip(int length){
+        readIndex += length;
+        if (readIndex == writeIndex){
+            readIndex = writeIndex = 0;
+        }
+    }
+
+    void clear(){
+        readIndex = writeIndex = 0;
+    }
+
+    private void ensureWritable(int length){
+        if (writeIndex + length <= array.length){
+            return;
+        }
+        int readable = readable();
+        if (readable + length <= array.length){
+            System.arraycopy(array, readIndex, array, 0, readable);
+        } else {
+            int newLength = array.length;
+            while (newLength < readable + length){
+                newLength <<= 1;
+            }
+            byte[] newArray = new byte[newLength];
+            System.arraycopy(array, readIndex, newArray, 0, readable);
+            array = newArray;
+        }
+        readIndex = 0;
+        writeIndex = readable;
+    }
+
+}
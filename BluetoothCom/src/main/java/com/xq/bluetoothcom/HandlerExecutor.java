@@ -0,0 +1,41 @@
+package com.xq.bluetoothcom;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+
+//把任务投递到指定Looper上执行。传给BluetoothCom后，串行队列的调度、超时和蓝牙回调（API 26以上）都在这个线程上，
+//可以配合HandlerThread把高频的设备通信完全移出主线程
+public class HandlerExecutor implements Executor {
+
+    private static final String TAG = "HandlerExecutor";
+
+    //默认在主线程执行，与之前的行为一致
+    public static final HandlerExecutor MAIN = new HandlerExecutor(Looper.getMainLooper());
+
+    private final Handler handler;
+
+    public HandlerExecutor(Looper looper) {
+        this(new Handler(looper));
+    }
+
+    public HandlerExecutor(Handler handler) {
+        this.handler = handler;
+    }
+
+    public Handler getHandler() {
+        return handler;
+    }
+
+    //Looper已经退出时post返回false，与直接使用Handler一样丢弃任务，不抛出异常：
+    //调用方很多在时间轮线程或者持有锁的路径上，抛出异常反而会卡住队列
+    @Override
+    public void execute(Runnable command) {
+        if (!handler.post(command)){
+            Log.w(TAG, handler + " is shutting down, task dropped");
+        }
+    }
+
+}
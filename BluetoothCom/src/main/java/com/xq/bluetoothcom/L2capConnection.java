@@ -0,0 +1,80 @@
+package com.xq.bluetoothcom;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.os.Build;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+//基于BluetoothSocket的L2CAP CoC连接，API 29以上可用。
+//输出按对端的最大SDU缓冲，每次flush尽量凑满一包，减少分包和空口开销
+class L2capConnection implements StreamConnection {
+
+    //协议栈没有给出SDU大小时使用
+    private static final int DEFAULT_PACKET_SIZE = 512;
+
+    private final String address;
+
+    private final BluetoothSocket socket;
+
+    private InputStream inputStream;
+
+    private OutputStream outputStream;
+
+    @SuppressLint("NewApi")
+    L2capConnection(BluetoothDevice device, int psm, boolean secure) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q){
+            throw new IOException("L2CAP CoC requires API 29");
+        }
+        this.address = device.getAddress();
+        this.socket = secure ? device.createL2capChannel(psm) : device.createInsecureL2capChannel(psm);
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        socket.connect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    @SuppressLint("NewApi")
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (inputStream == null){
+            inputStream = new BufferedInputStream(socket.getInputStream(), packetSize(socket.getMaxReceivePacketSize()));
+        }
+        return inputStream;
+    }
+
+    @SuppressLint("NewApi")
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (outputStream == null){
+            outputStream = new BufferedOutputStream(socket.getOutputStream(), packetSize(socket.getMaxTransmitPacketSize()));
+        }
+        return outputStream;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private static int packetSize(int size){
+        return size > 0 ? size : DEFAULT_PACKET_SIZE;
+    }
+
+}
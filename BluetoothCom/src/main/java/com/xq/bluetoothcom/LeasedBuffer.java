@@ -0,0 +1,90 @@
+package com.xq.bluetoothcom;
+
+import java.nio.ByteBuffer;
+
+//从通道缓冲池借出的一包通知数据，用完必须调用release()归还，归还后不能再访问
+public final class LeasedBuffer {
+
+    private final BufferPool pool;
+
+    final int sizeClass;
+
+    private final byte[] array;
+
+    //只读视图随缓冲一起复用，每次借出时只重置position和limit
+    private final ByteBuffer view;
+
+    private int length;
+
+    //get(int)逐字节调用，不加锁：归还时清零，越界检查顺带完成了归还检查
+    private int readableLength;
+
+    private boolean released = true;
+
+    LeasedBuffer(BufferPool pool, int sizeClass, byte[] array) {
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+        this.array = array;
+        this.view = ByteBuffer.wrap(array).asReadOnlyBuffer();
+    }
+
+    synchronized void lease(byte[] bytes, int length){
+        if (length > 0){
+            System.arraycopy(bytes, 0, array, 0, length);
+        }
+        this.length = length;
+        this.readableLength = length;
+        this.released = false;
+        view.clear();
+        view.limit(length);
+    }
+
+    public synchronized int getLength() {
+        checkLeased();
+        return length;
+    }
+
+    //只应在拿到它的线程上调用，跨线程使用时要由使用方保证可见性
+    public byte get(int index){
+        if (index < 0 || index >= readableLength){
+            //失败时再确认是已经归还还是越界
+            int length = getLength();
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+        }
+        return array[index];
+    }
+
+    //只读视图，position为0，limit为数据长度
+    public synchronized ByteBuffer asReadOnlyBuffer(){
+        checkLeased();
+        return view;
+    }
+
+    public synchronized void copyTo(byte[] dst, int offset){
+        checkLeased();
+        System.arraycopy(array, 0, dst, offset, length);
+    }
+
+    public synchronized byte[] toByteArray(){
+        checkLeased();
+        byte[] bytes = new byte[length];
+        System.arraycopy(array, 0, bytes, 0, length);
+        return bytes;
+    }
+
+    public void release(){
+        synchronized (this){
+            checkLeased();
+            released = true;
+            readableLength = 0;
+        }
+        pool.release(this);
+    }
+
+    private void checkLeased(){
+        if (released){
+            throw new IllegalStateException("buffer already released");
+        }
+    }
+
+}
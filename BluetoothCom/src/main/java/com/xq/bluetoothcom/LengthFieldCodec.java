@@ -0,0 +1,118 @@
+package com.xq.bluetoothcom;
+
+//长度字段分帧。帧长 = lengthFieldOffset + lengthFieldLength + 长度字段的值 + lengthAdjustment，
+//解出后去掉前initialBytesToStrip个字节。2字节大端、不调整、去掉头部时与writeFrame/FrameAssembler的格式一致
+public final class LengthFieldCodec {
+
+    private LengthFieldCodec() {
+    }
+
+    public static class Decoder extends CodecPipeline.InboundHandler {
+
+        private final int maxFrameLength;
+
+        private final int lengthFieldOffset;
+
+        private final int lengthFieldLength;
+
+        private final int lengthAdjustment;
+
+        private final int initialBytesToStrip;
+
+        private final boolean bigEndian;
+
+        private final GrowableBuffer buffer = new GrowableBuffer(64);
+
+        //长度字段之后只包含数据，解出的帧去掉长度字段
+        public Decoder(int lengthFieldLength) {
+            this(FrameAssembler.MAX_FRAME_SIZE + lengthFieldLength, 0, lengthFieldLength, 0, lengthFieldLength, true);
+        }
+
+        //maxFrameLength包含长度字段在内，超过时抛出CodecException
+        public Decoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength, int lengthAdjustment, int initialBytesToStrip, boolean bigEndian) {
+            checkLengthFieldLength(lengthFieldLength);
+            this.maxFrameLength = maxFrameLength;
+            this.lengthFieldOffset = lengthFieldOffset;
+            this.lengthFieldLength = lengthFieldLength;
+            this.lengthAdjustment = lengthAdjustment;
+            this.initialBytesToStrip = initialBytesToStrip;
+            this.bigEndian = bigEndian;
+        }
+
+        @Override
+        public void read(Object message, CodecPipeline.Output out) throws CodecPipeline.CodecException {
+            byte[] bytes = CodecPipeline.toBytes(message);
+            buffer.write(bytes, 0, bytes.length);
+            int headerLength = lengthFieldOffset + lengthFieldLength;
+            while (buffer.readable() >= headerLength){
+                long frameLength = (long) headerLength + getLength() + lengthAdjustment;
+                if (frameLength < headerLength || frameLength > maxFrameLength || frameLength < initialBytesToStrip){
+                    throw new CodecPipeline.CodecException("bad frame length: " + frameLength);
+                }
+                if (buffer.readable() < frameLength){
+                    return;
+                }
+                buffer.skip(initialBytesToStrip);
+                out.add(buffer.read((int) frameLength - initialBytesToStrip));
+            }
+        }
+
+        @Override
+        public void reset() {
+            buffer.clear();
+        }
+
+        private long getLength(){
+            long length = 0;
+            for (int i = 0; i < lengthFieldLength; i++){
+                int b = buffer.get(lengthFieldOffset + (bigEndian ? i : lengthFieldLength - 1 - i)) & 0xFF;
+                length = (length << 8) | b;
+            }
+            return length;
+        }
+    }
+
+    //在数据前加上长度字段，长度字段的值 = 数据长度 - lengthAdjustment
+    public static class Encoder extends CodecPipeline.OutboundHandler {
+
+        private final int lengthFieldLength;
+
+        private final int lengthAdjustment;
+
+        private final boolean bigEndian;
+
+        public Encoder(int lengthFieldLength) {
+            this(lengthFieldLength, 0, true);
+        }
+
+        public Encoder(int lengthFieldLength, int lengthAdjustment, boolean bigEndian) {
+            checkLengthFieldLength(lengthFieldLength);
+            this.lengthFieldLength = lengthFieldLength;
+            this.lengthAdjustment = lengthAdjustment;
+            this.bigEndian = bigEndian;
+        }
+
+        @Override
+        public void write(Object message, CodecPipeline.Output out) throws CodecPipeline.CodecException {
+            byte[] bytes = CodecPipeline.toBytes(message);
+            long length = (long) bytes.length - lengthAdjustment;
+            if (length < 0 || (lengthFieldLength < 4 && length >= 1L << (lengthFieldLength * 8))){
+                throw new CodecPipeline.CodecException("frame too large: " + bytes.length);
+            }
+            byte[] frame = new byte[lengthFieldLength + bytes.length];
+            for (int i = 0; i < lengthFieldLength; i++){
+                int shift = 8 * (bigEndian ? lengthFieldLength - 1 - i : i);
+                frame[i] = (byte) (length >> shift);
+            }
+            System.arraycopy(bytes, 0, frame, lengthFieldLength, bytes.length);
+            out.add(frame);
+        }
+    }
+
+    private static void checkLengthFieldLength(int lengthFieldLength){
+        if (lengthFieldLength < 1 || lengthFieldLength > 4){
+            throw new IllegalArgumentException("lengthFieldLength must be 1~4");
+        }
+    }
+
+}
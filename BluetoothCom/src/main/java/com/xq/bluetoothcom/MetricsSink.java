@@ -0,0 +1,62 @@
+package com.xq.bluetoothcom;
+
+import java.util.UUID;
+
+//性能指标的输出口，所有方法都会在蓝牙回调线程或主线程上同步调用，实现必须无锁且尽量不分配内存
+public interface MetricsSink {
+
+    MetricsSink NONE = new MetricsSink() {
+        @Override
+        public void recordOp(String device, Op op, long queueWait, long onAir) {
+
+        }
+
+        @Override
+        public void recordTimeout(String device, Op op) {
+
+        }
+
+        @Override
+        public void recordNotification(String device, UUID characterUUID, int bytes) {
+
+        }
+
+        @Override
+        public void recordConnectAttempt(String device, int retryCount) {
+
+        }
+
+        @Override
+        public void recordServicesDiscovered(String device, long elapsed) {
+
+        }
+    };
+
+    //queueWait为在串行队列中的等待时间，onAir为开始执行到结束的时间，单位毫秒
+    void recordOp(String device, Op op, long queueWait, long onAir);
+
+    void recordTimeout(String device, Op op);
+
+    void recordNotification(String device, UUID characterUUID, int bytes);
+
+    //retryCount为0表示首次尝试
+    void recordConnectAttempt(String device, int retryCount);
+
+    //从connectGatt到发现服务成功的时间
+    void recordServicesDiscovered(String device, long elapsed);
+
+    enum Op{
+        CONNECT,
+        REQUEST_MTU,
+        WRITE_CHARACTERISTIC,
+        READ_CHARACTERISTIC,
+        WRITE_DESCRIPTOR,
+        READ_DESCRIPTOR,
+        START_NOTIFY,
+        STOP_NOTIFY,
+        WRITE_STREAM,
+        RELIABLE_WRITE,
+        READ_MANY,
+    }
+
+}
@@ -0,0 +1,11 @@
+package com.xq.bluetoothcom;
+
+//串行队列的优先级通道，数值越小越先执行；低优先级任务会随等待时间逐步提升，不会被饿死
+public enum Priority {
+    //控制指令等对时延敏感的操作
+    CONTROL,
+    //普通交互操作，未指定时的默认值
+    INTERACTIVE,
+    //日志导出、固件升级等大批量传输
+    BULK,
+}
@@ -0,0 +1,217 @@
+package com.xq.bluetoothcom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+//通道的读缓存，只对设置了TTL的特征值/描述符生效。同一个句柄同时只有一个读取在进行，
+//期间的其它读取直接等这次的结果；成功的结果在TTL内直接返回，不再经过串行队列。
+//命中时的回调投递到executor上，和未命中时一样不会在调用read的线程上同步回调。
+//合并按入队顺序判断：写入一入队就让进行中的读取脱离合并，之后的读取排在写入后面重新读，
+//写入完成前也不使用和保存缓存，不会拿到写入前的值
+class ReadCache {
+
+    private final Clock clock;
+
+    private final Executor executor;
+
+    private final Map<Object, Long> ttlMap = new HashMap<>();
+
+    private final Map<Object, Entry> entryMap = new HashMap<>();
+
+    //设置了TTL的特征值UUID，写时复制。每条通知都会查一次，不在其中的不加锁直接返回
+    private volatile Set<UUID> characterUUIDs = Collections.emptySet();
+
+    ReadCache(Clock clock, Executor executor) {
+        this.clock = clock;
+        this.executor = executor;
+    }
+
+    //ttl为0时只合并同时进行的读取，不缓存结果；小于0时关闭
+    synchronized void setTtl(Object key, long ttl){
+        if (ttl < 0){
+            ttlMap.remove(key);
+            entryMap.remove(key);
+        } else {
+            ttlMap.put(key, ttl);
+        }
+        if (key instanceof CharacteristicRef){
+            Set<UUID> uuids = new HashSet<>();
+            for (Object ref : ttlMap.keySet()){
+                if (ref instanceof CharacteristicRef){
+                    uuids.add(((CharacteristicRef) ref).getCharacterUUID());
+                }
+            }
+            characterUUIDs = uuids;
+        }
+    }
+
+    //返回null说明已经由缓存处理（命中或者加入了进行中的读取），否则用返回的回调发起真正的读取
+    BluetoothChannel.OnReadCallback read(final Object key, final BluetoothChannel.OnReadCallback callback){
+        final byte[] value;
+        synchronized (this){
+            Long ttl = ttlMap.get(key);
+            if (ttl == null){
+                return callback;
+            }
+            Entry entry = entryMap.get(key);
+            if (entry == null){
+                entry = new Entry();
+                entryMap.put(key, entry);
+            }
+            if (entry.flight != null){
+                entry.flight.waiters.add(callback);
+                return null;
+            }
+            if (entry.value == null || entry.pendingWrites > 0 || clock.uptimeMillis() >= entry.expireTime){
+                entry.value = null;
+                Flight flight = new Flight();
+                flight.waiters.add(callback);
+                entry.flight = flight;
+                return createLeaderCallback(key, entry, flight, ttl);
+            }
+            value = entry.value.clone();
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onRead(value);
+            }
+        });
+        return null;
+    }
+
+    synchronized void invalidate(Object key){
+        Entry entry = entryMap.get(key);
+        if (entry != null){
+            invalidate(entry);
+        }
+    }
+
+    //写入入队时调用，与onWriteFinished成对
+    synchronized void onWriteQueued(Object key){
+        if (!ttlMap.containsKey(key)){
+            return;
+        }
+        Entry entry = entryMap.get(key);
+        if (entry == null){
+            entry = new Entry();
+            entryMap.put(key, entry);
+        }
+        entry.pendingWrites++;
+        invalidate(entry);
+    }
+
+    //写入成功、失败、超时或取消后调用
+    synchronized void onWriteFinished(Object key){
+        Entry entry = entryMap.get(key);
+        if (entry != null && entry.pendingWrites > 0){
+            entry.pendingWrites--;
+            entry.value = null;
+        }
+    }
+
+    //每条通知都会调用，没有对这个特征值设置TTL时不加锁也不分配内存
+    void invalidateCharacteristic(UUID serviceUUID, UUID characterUUID){
+        if (!characterUUIDs.contains(characterUUID)){
+            return;
+        }
+        invalidate(new CharacteristicRef(serviceUUID, characterUUID));
+    }
+
+    synchronized void invalidateAll(){
+        for (Entry entry : entryMap.values()){
+            invalidate(entry);
+        }
+    }
+
+    //连同进行中的读取一起丢弃，正在等待的回调由发起读取的那次结果通知
+    synchronized void clear(){
+        entryMap.clear();
+    }
+
+    //必须持有锁调用。进行中的读取照常回调已经在等的一方，但之后的读取不再合并到它上面
+    private void invalidate(Entry entry){
+        entry.value = null;
+        if (entry.flight != null){
+            entry.flight.invalidated = true;
+            entry.flight = null;
+        }
+    }
+
+    private BluetoothChannel.OnReadCallback createLeaderCallback(final Object key, final Entry entry, final Flight flight, final long ttl){
+        return new BluetoothChannel.OnReadCallback() {
+            @Override
+            public void onRead(byte[] bytes) {
+                List<BluetoothChannel.OnReadCallback> waiters;
+                synchronized (ReadCache.this){
+                    waiters = flight.waiters;
+                    flight.waiters = null;
+                    if (waiters == null){
+                        return;
+                    }
+                    if (entry.flight == flight){
+                        entry.flight = null;
+                    }
+                    //读取期间被通知、写入或者服务变化作废的结果不缓存
+                    if (ttl > 0 && bytes != null && !flight.invalidated && entry.pendingWrites == 0 && entryMap.get(key) == entry){
+                        entry.value = bytes.clone();
+                        entry.expireTime = clock.uptimeMillis() + ttl;
+                    }
+                }
+                Iterator<BluetoothChannel.OnReadCallback> iterator = waiters.iterator();
+                iterator.next().onRead(bytes);
+                while (iterator.hasNext()){
+                    iterator.next().onRead(bytes == null ? null : bytes.clone());
+                }
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                List<BluetoothChannel.OnReadCallback> waiters;
+                synchronized (ReadCache.this){
+                    waiters = flight.waiters;
+                    flight.waiters = null;
+                    if (waiters == null){
+                        return;
+                    }
+                    if (entry.flight == flight){
+                        entry.flight = null;
+                    }
+                }
+                for (BluetoothChannel.OnReadCallback waiter : waiters){
+                    waiter.onError(info, code);
+                }
+            }
+        };
+    }
+
+    private static class Entry {
+
+        private byte[] value;
+
+        private long expireTime;
+
+        //已经入队还没有结束的写入数
+        private int pendingWrites;
+
+        //不为null说明有可以合并的读取正在进行
+        private Flight flight;
+    }
+
+    //一次真正的读取和等它结果的回调
+    private static class Flight {
+
+        private List<BluetoothChannel.OnReadCallback> waiters = new ArrayList<>();
+
+        private boolean invalidated;
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.xq.bluetoothcom;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//可靠写事务：多个特征值的写入先逐个发给设备暂存，全部暂存成功后一次性执行；
+//任何一步失败都会放弃整个事务，设备不会只应用其中一部分。整个事务占用通道串行队列的一个任务。
+//每个写入仍然是一次Prepare Write往返，最后再加一次Execute Write，换来的是原子性。
+//系统不会把Prepare Write Response中设备回显的值交给应用，这里不做回显校验
+public final class ReliableWriteTransaction {
+
+    private final BluetoothChannel bluetoothChannel;
+
+    private final List<CharacteristicRef> refs = new ArrayList<>();
+
+    private final List<byte[]> values = new ArrayList<>();
+
+    private Priority priority = Priority.INTERACTIVE;
+
+    private int timeout;
+
+    ReliableWriteTransaction(BluetoothChannel bluetoothChannel) {
+        this.bluetoothChannel = bluetoothChannel;
+    }
+
+    //单个值不能超过MTU-5字节，事务中不拆包
+    public ReliableWriteTransaction write(CharacteristicRef ref, byte[] bytes){
+        refs.add(ref);
+        values.add(bytes);
+        return this;
+    }
+
+    public ReliableWriteTransaction write(String serviceUUID, String characterUUID, byte[] bytes){
+        return write(CharacteristicRef.of(serviceUUID, characterUUID), bytes);
+    }
+
+    public ReliableWriteTransaction setPriority(Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    //整个事务的超时，不设置时使用通道的默认超时
+    public ReliableWriteTransaction setTimeout(int timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    //可以多次执行，每次都是独立的事务
+    public BluetoothChannel.Operation execute(BluetoothChannel.OnActionCallback callback){
+        if (refs.isEmpty()){
+            throw new IllegalStateException("no write in transaction");
+        }
+        return bluetoothChannel.executeReliableWrite(new ArrayList<>(refs), new ArrayList<>(values), priority, timeout > 0 ? timeout : bluetoothChannel.getOperationTimeout(), callback);
+    }
+
+    public GattFuture<Void> executeAsync(){
+        GattFuture<Void> future = new GattFuture<>();
+        future.setOperation(execute(future.toActionCallback(null)));
+        return future;
+    }
+
+}
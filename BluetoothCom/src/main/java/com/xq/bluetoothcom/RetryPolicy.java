@@ -0,0 +1,20 @@
+package com.xq.bluetoothcom;
+
+//重连策略：决定每次重试前等多久、什么时候放弃，以及是否暂时不再连接某个设备
+public interface RetryPolicy {
+
+    long STOP = -1;
+
+    //返回false说明该设备处于熔断中，本次connect直接失败
+    boolean allowConnect(String device);
+
+    //retryCount从1开始，elapsed为本次connect从第一次尝试至今的时间，返回STOP则放弃重试
+    long nextDelay(String device, int retryCount, long elapsed);
+
+    //一次connect最终成功
+    void onSuccess(String device);
+
+    //一次connect的所有重试都失败了
+    void onFailure(String device);
+
+}
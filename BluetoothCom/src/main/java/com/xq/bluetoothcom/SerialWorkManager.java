@@ -1,133 +1,342 @@
 package com.xq.bluetoothcom;
 
-import android.os.Handler;
-import android.os.Looper;
-import android.util.Pair;
-
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 class SerialWorkManager {
 
-    private final ExecutorService workThread = new ThreadPoolExecutor(1, 1,
-            0L, TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<Runnable>());
+    private static final String TAG = "SerialWorkManager";
+
+    //低优先级任务每等待这么久就提升一级，保证BULK最迟2秒后能和CONTROL公平竞争
+    private static final long AGING_INTERVAL = 1000;
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    //任务和超时回调都在这里执行，默认是主线程
+    private final Executor executor;
+
+    private final TimerWheel timerWheel;
+
+    private final Clock clock;
+
+    private final Object lock = new Object();
 
-    private final Map<WorkRunnable, Future<?>> futureMap = new LinkedHashMap<>();
+    private final ArrayDeque<WorkRunnable>[] lanes;
+
+    private final LatencyHistogram[] queueWaitHistograms;
+
+    private WorkRunnable currentWork;
+
+    private boolean closed;
+
+    private volatile String device;
+
+    private volatile MetricsSink metricsSink = MetricsSink.NONE;
+
+    public SerialWorkManager() {
+        this(HandlerExecutor.MAIN);
+    }
+
+    public SerialWorkManager(Executor executor) {
+        this(executor, TimerWheel.shared(), Clock.SYSTEM);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SerialWorkManager(Executor executor, TimerWheel timerWheel, Clock clock) {
+        this.executor = executor;
+        this.timerWheel = timerWheel;
+        this.clock = clock;
+        this.lanes = new ArrayDeque[PRIORITIES.length];
+        this.queueWaitHistograms = new LatencyHistogram[PRIORITIES.length];
+        for (int i = 0; i < PRIORITIES.length; i++){
+            lanes[i] = new ArrayDeque<>();
+            queueWaitHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    //带Op的任务结束或超时时会上报给metricsSink
+    public void setMetricsSink(String device, MetricsSink metricsSink){
+        this.device = device;
+        this.metricsSink = metricsSink;
+    }
 
     public boolean joinWork(WorkRunnable workRunnable){
         return joinWork(Integer.MAX_VALUE,workRunnable);
     }
 
     public boolean joinWork(final int outTime, final WorkRunnable workRunnable){
-        synchronized (futureMap){
-            try {
-                futureMap.put(workRunnable,workThread.submit(new Runnable() {
-
-                    @Override
-                    public void run() {
-                        //所有回调都需要执行在主线程
-                        Handler handler = new Handler(Looper.getMainLooper());
-                        //
-                        dispatchRun(handler,workRunnable);
-                        //
-                        try {
-                            Thread.sleep(outTime);
-                            //上面的倒计时结束了还没被中断，说明超时了，那么直接回调超时事件
-                            if (containWithRemove()){
-                                dispatchOnTimeout(handler,workRunnable);
-                            }
-                        } catch (InterruptedException e) {
-                            //
-                            handler.removeCallbacksAndMessages(null);
-                        }
-                    }
-
-                    private void dispatchRun(Handler handler,final WorkRunnable workRunnable){
-                        handler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                workRunnable.run();
-                            }
-                        });
-                    }
+        return joinWork(outTime, Priority.INTERACTIVE, workRunnable);
+    }
 
-                    private void dispatchOnTimeout(Handler handler,final WorkRunnable workRunnable){
-                        handler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                workRunnable.onTimeout();
-                            }
-                        });
-                    }
+    public boolean joinWork(final Priority priority, final WorkRunnable workRunnable){
+        return joinWork(Integer.MAX_VALUE, priority, workRunnable);
+    }
 
-                    private boolean containWithRemove(){
-                        if (futureMap.containsKey(workRunnable)){
-                            synchronized (futureMap){
-                                if (futureMap.containsKey(workRunnable)){
-                                    futureMap.remove(workRunnable);
-                                    return true;
-                                }
-                            }
-                        }
-                        return false;
-                    }
-                }));
-                return true;
-            } catch (RejectedExecutionException e){
-                e.printStackTrace();
+    public boolean joinWork(final int outTime, final Priority priority, final WorkRunnable workRunnable){
+        List<WorkRunnable> rejected;
+        synchronized (lock){
+            if (closed || containWork(workRunnable)){
                 return false;
             }
+            workRunnable.outTime = outTime;
+            workRunnable.priority = priority;
+            workRunnable.enqueueTime = clock.uptimeMillis();
+            lanes[priority.ordinal()].offer(workRunnable);
+            rejected = scheduleNext();
         }
+        dispatchRejected(rejected);
+        return true;
     }
 
     public boolean leaveWork(WorkRunnable workRunnable){
-        Pair<Boolean, Future<?>> pair = containWithRemoveWork(workRunnable);
-        if (pair.first){
-            pair.second.cancel(true);
+        long queueWait;
+        long onAir;
+        List<WorkRunnable> rejected;
+        synchronized (lock){
+            if (workRunnable != currentWork){
+                return workRunnable.priority != null && lanes[workRunnable.priority.ordinal()].remove(workRunnable);
+            }
+            queueWait = workRunnable.startTime - workRunnable.enqueueTime;
+            onAir = clock.uptimeMillis() - workRunnable.startTime;
+            finishCurrent();
+            rejected = scheduleNext();
+        }
+        dispatchRejected(rejected);
+        //sink由使用方实现，不在锁内调用
+        if (workRunnable.op != null){
+            metricsSink.recordOp(device, workRunnable.op, queueWait, onAir);
         }
-        return pair.first;
+        return true;
     }
 
     public boolean containWork(WorkRunnable workRunnable){
-        return futureMap.containsKey(workRunnable);
+        synchronized (lock){
+            return workRunnable == currentWork || (workRunnable.priority != null && lanes[workRunnable.priority.ordinal()].contains(workRunnable));
+        }
+    }
+
+    //排队中和进行中的任务都会收到onClose
+    public void clearAllWork(){
+        List<WorkRunnable> dropped;
+        synchronized (lock){
+            dropped = drainAll();
+        }
+        dispatchClose(dropped);
+    }
+
+    //各优先级任务从入队到开始执行的等待时间
+    public LatencyHistogram getQueueWaitHistogram(Priority priority){
+        return queueWaitHistograms[priority.ordinal()];
+    }
+
+    public void close(){
+        List<WorkRunnable> dropped;
+        synchronized (lock){
+            closed = true;
+            dropped = drainAll();
+        }
+        dispatchClose(dropped);
     }
 
-    private Pair<Boolean,Future<?>> containWithRemoveWork(WorkRunnable workRunnable){
-        if (futureMap.containsKey(workRunnable)){
-            synchronized (futureMap){
-                if (futureMap.containsKey(workRunnable)){
-                    return new Pair<Boolean,Future<?>>(true,futureMap.get(workRunnable));
+    //必须持有lock调用，进行中的排在最前面
+    private List<WorkRunnable> drainAll(){
+        List<WorkRunnable> dropped = new ArrayList<>();
+        if (currentWork != null){
+            dropped.add(currentWork);
+            finishCurrent();
+        }
+        for (ArrayDeque<WorkRunnable> lane : lanes){
+            dropped.addAll(lane);
+            lane.clear();
+        }
+        return dropped;
+    }
+
+    private void dispatchClose(final List<WorkRunnable> dropped){
+        if (dropped.isEmpty()){
+            return;
+        }
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                for (WorkRunnable workRunnable : dropped){
+                    workRunnable.onClose();
                 }
             }
+        };
+        try {
+            executor.execute(runnable);
+        } catch (RuntimeException e) {
+            //executor已经不可用时就地回调，不能让等待结果的一方一直挂着
+            Log.w(TAG, "executor rejected close callbacks", e);
+            runnable.run();
         }
-        return new Pair<>(false,null);
     }
 
-    public void clearAllWork(){
-        for (Future<?> future : futureMap.values()){
-            future.cancel(true);
+    //必须持有lock调用，返回被executor拒绝的任务（没有时为null），由调用方在锁外回调onRejected
+    private List<WorkRunnable> scheduleNext(){
+        List<WorkRunnable> rejected = null;
+        while (currentWork == null && !closed){
+            long now = clock.uptimeMillis();
+            final WorkRunnable workRunnable = pollNext(now);
+            if (workRunnable == null){
+                break;
+            }
+            queueWaitHistograms[workRunnable.priority.ordinal()].record(now - workRunnable.enqueueTime);
+            workRunnable.startTime = now;
+            currentWork = workRunnable;
+            if (workRunnable.outTime != Integer.MAX_VALUE){
+                workRunnable.timeout = timerWheel.newTimeout(new Runnable() {
+                    @Override
+                    public void run() {
+                        onWorkTimeout(workRunnable);
+                    }
+                }, workRunnable.outTime);
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        //投递到executor期间可能已经被leave或者clear了
+                        if (containCurrent(workRunnable)){
+                            workRunnable.run();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                //executor拒绝时释放占用并让任务失败，不然队列会一直卡住，异常也不能抛回binder线程
+                Log.w(TAG, "executor rejected work", e);
+                finishCurrent();
+                if (rejected == null){
+                    rejected = new ArrayList<>();
+                }
+                rejected.add(workRunnable);
+            }
         }
-        futureMap.clear();
+        return rejected;
     }
 
-    public void close(){
-        workThread.shutdownNow();
-        futureMap.clear();
+    //executor已经不可用，只能在当前线程回调
+    private void dispatchRejected(List<WorkRunnable> rejected){
+        if (rejected == null){
+            return;
+        }
+        for (WorkRunnable workRunnable : rejected){
+            workRunnable.onRejected();
+        }
+    }
+
+    //每条通道只看队头（同一通道内先进先出），按等待时间折算后的优先级取最小的，相同则取等得最久的
+    private WorkRunnable pollNext(long now){
+        ArrayDeque<WorkRunnable> selected = null;
+        long selectedRank = Long.MAX_VALUE;
+        long selectedEnqueueTime = Long.MAX_VALUE;
+        for (int i = 0; i < lanes.length; i++){
+            WorkRunnable head = lanes[i].peek();
+            if (head == null){
+                continue;
+            }
+            long rank = Math.max(0, i - (now - head.enqueueTime) / AGING_INTERVAL);
+            if (rank < selectedRank || (rank == selectedRank && head.enqueueTime < selectedEnqueueTime)){
+                selected = lanes[i];
+                selectedRank = rank;
+                selectedEnqueueTime = head.enqueueTime;
+            }
+        }
+        return selected == null ? null : selected.poll();
+    }
+
+    //必须持有lock调用
+    private void finishCurrent(){
+        if (currentWork != null){
+            if (currentWork.timeout != null){
+                currentWork.timeout.cancel();
+                currentWork.timeout = null;
+            }
+            currentWork = null;
+        }
+    }
+
+    private void onWorkTimeout(final WorkRunnable workRunnable){
+        Runnable timeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                workRunnable.onTimeout();
+            }
+        };
+        boolean posted;
+        List<WorkRunnable> rejected;
+        synchronized (lock){
+            if (workRunnable != currentWork){
+                return;
+            }
+            workRunnable.timeout = null;
+            currentWork = null;
+            try {
+                executor.execute(timeoutRunnable);
+                posted = true;
+            } catch (RuntimeException e) {
+                Log.w(TAG, "executor rejected timeout callback", e);
+                posted = false;
+            }
+            rejected = scheduleNext();
+        }
+        if (!posted){
+            timeoutRunnable.run();
+        }
+        dispatchRejected(rejected);
+        if (workRunnable.op != null){
+            metricsSink.recordTimeout(device, workRunnable.op);
+        }
+    }
+
+    private boolean containCurrent(WorkRunnable workRunnable){
+        synchronized (lock){
+            return workRunnable == currentWork;
+        }
     }
 
     public abstract class WorkRunnable implements Runnable{
 
+        private int outTime;
+
+        private TimerWheel.Timeout timeout;
+
+        private Priority priority;
+
+        private long enqueueTime;
+
+        private long startTime;
+
+        private final MetricsSink.Op op;
+
+        public WorkRunnable() {
+            this(null);
+        }
+
+        //op用于指标统计，为null时不上报
+        public WorkRunnable(MetricsSink.Op op) {
+            this.op = op;
+        }
+
         public void onTimeout(){
 
         }
 
+        //通道关闭或清空队列时，排队中和进行中的任务在executor上回调
+        public void onClose(){
+
+        }
+
+        //executor拒绝执行时，任务已经出队，在调用joinWork/leaveWork的线程上回调
+        public void onRejected(){
+
+        }
+
         public boolean leave(){
             return leaveWork(this);
         }
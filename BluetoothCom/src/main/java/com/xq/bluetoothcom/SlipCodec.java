@@ -0,0 +1,111 @@
+package com.xq.bluetoothcom;
+
+//SLIP分帧(RFC 1055)：帧以END结束，数据中的END和ESC转义为两个字节。编码时帧前也加一个END，冲掉线路上的残留数据
+public final class SlipCodec {
+
+    private static final byte END = (byte) 0xC0;
+
+    private static final byte ESC = (byte) 0xDB;
+
+    private static final byte ESC_END = (byte) 0xDC;
+
+    private static final byte ESC_ESC = (byte) 0xDD;
+
+    private SlipCodec() {
+    }
+
+    //逐字节解码，不保留原始数据；遇到非法转义时丢弃当前帧直到下一个END
+    public static class Decoder extends CodecPipeline.InboundHandler {
+
+        private final int maxFrameLength;
+
+        private final GrowableBuffer frame = new GrowableBuffer(64);
+
+        private boolean escaped;
+
+        private boolean discarding;
+
+        public Decoder() {
+            this(FrameAssembler.MAX_FRAME_SIZE);
+        }
+
+        public Decoder(int maxFrameLength) {
+            this.maxFrameLength = maxFrameLength;
+        }
+
+        @Override
+        public void read(Object message, CodecPipeline.Output out) throws CodecPipeline.CodecException {
+            byte[] bytes = CodecPipeline.toBytes(message);
+            for (byte b : bytes){
+                if (b == END){
+                    if (!discarding && !escaped && frame.readable() > 0){
+                        out.add(frame.read(frame.readable()));
+                    }
+                    reset();
+                } else if (discarding){
+                    //等待下一个END
+                } else if (escaped){
+                    escaped = false;
+                    if (b == ESC_END){
+                        append(END);
+                    } else if (b == ESC_ESC){
+                        append(ESC);
+                    } else {
+                        discarding = true;
+                    }
+                } else if (b == ESC){
+                    escaped = true;
+                } else {
+                    append(b);
+                }
+            }
+        }
+
+        @Override
+        public void reset() {
+            frame.clear();
+            escaped = false;
+            discarding = false;
+        }
+
+        private void append(byte b){
+            if (frame.readable() >= maxFrameLength){
+                discarding = true;
+                return;
+            }
+            frame.write(b);
+        }
+    }
+
+    public static class Encoder extends CodecPipeline.OutboundHandler {
+
+        @Override
+        public void write(Object message, CodecPipeline.Output out) throws CodecPipeline.CodecException {
+            byte[] bytes = CodecPipeline.toBytes(message);
+            //先数出需要转义的字节，一次分配到位
+            int length = bytes.length + 2;
+            for (byte b : bytes){
+                if (b == END || b == ESC){
+                    length++;
+                }
+            }
+            byte[] frame = new byte[length];
+            int index = 0;
+            frame[index++] = END;
+            for (byte b : bytes){
+                if (b == END){
+                    frame[index++] = ESC;
+                    frame[index++] = ESC_END;
+                } else if (b == ESC){
+                    frame[index++] = ESC;
+                    frame[index++] = ESC_ESC;
+                } else {
+                    frame[index++] = b;
+                }
+            }
+            frame[index] = END;
+            out.add(frame);
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.xq.bluetoothcom;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+//面向字节流的连接，目前的实现是L2CAP CoC。读写都是阻塞的，需要在自己的线程里进行；
+//写入后调用flush()才会发出不满一包的数据
+public interface StreamConnection extends Closeable {
+
+    String getAddress();
+
+    //阻塞直到连接成功，close()会让进行中的connect()抛出IOException
+    void connect() throws IOException;
+
+    boolean isConnected();
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    //可以在任意线程调用，重复调用无影响
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,18 @@
+package com.xq.bluetoothcom;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.io.IOException;
+
+//创建未连接的StreamConnection。默认使用L2CAP CoC，JVM上测试时可以换成基于内存管道的实现
+public interface StreamConnector {
+
+    StreamConnector L2CAP = new StreamConnector() {
+        @Override
+        public StreamConnection create(BluetoothDevice device, int psm, boolean secure) throws IOException {
+            return new L2capConnection(device, psm, secure);
+        }
+    };
+
+    StreamConnection create(BluetoothDevice device, int psm, boolean secure) throws IOException;
+}
@@ -0,0 +1,235 @@
+package com.xq.bluetoothcom;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//哈希时间轮：所有SerialWorkManager共享一个实例、一条线程来跟踪超时，
+//新增与取消都是O(1)，没有超时任务时线程会一直挂起
+class TimerWheel {
+
+    private static final String TAG = "TimerWheel";
+
+    private static final long DEFAULT_TICK_DURATION = 10;
+
+    private static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    private static TimerWheel sharedInstance;
+
+    static synchronized TimerWheel shared(){
+        if (sharedInstance == null){
+            sharedInstance = new TimerWheel(Clock.SYSTEM, DEFAULT_TICK_DURATION, DEFAULT_TICKS_PER_WHEEL);
+            sharedInstance.start();
+        }
+        return sharedInstance;
+    }
+
+    private final Clock clock;
+
+    private final long tickDuration;
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    private final long startTime;
+
+    //下一个需要处理的tick
+    private long tick;
+
+    private int pendingCount;
+
+    private Thread workerThread;
+
+    TimerWheel(Clock clock, long tickDuration, int ticksPerWheel) {
+        if (tickDuration <= 0){
+            throw new IllegalArgumentException("tickDuration must be greater than 0");
+        }
+        if (ticksPerWheel <= 0 || (ticksPerWheel & (ticksPerWheel - 1)) != 0){
+            throw new IllegalArgumentException("ticksPerWheel must be a power of 2");
+        }
+        this.clock = clock;
+        this.tickDuration = tickDuration;
+        this.wheel = new Bucket[ticksPerWheel];
+        for (int i = 0; i < ticksPerWheel; i++){
+            wheel[i] = new Bucket();
+        }
+        this.mask = ticksPerWheel - 1;
+        this.startTime = clock.uptimeMillis();
+    }
+
+    synchronized void start(){
+        if (workerThread != null){
+            return;
+        }
+        workerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted()){
+                        awaitNextTick();
+                        expireTimeouts();
+                    }
+                } catch (InterruptedException e) {
+                    //
+                }
+            }
+        }, "BluetoothCom-TimerWheel");
+        workerThread.setDaemon(true);
+        workerThread.start();
+    }
+
+    synchronized void stop(){
+        if (workerThread != null){
+            workerThread.interrupt();
+            workerThread = null;
+        }
+    }
+
+    public Timeout newTimeout(Runnable task, long delay){
+        Timeout timeout = new Timeout(task);
+        synchronized (this){
+            long now = clock.uptimeMillis();
+            if (pendingCount == 0){
+                //轮子空闲期间没有推进，直接跳到当前tick，避免唤醒后逐格追赶
+                tick = Math.max(tick, currentTick(now));
+            }
+            long deadline = now + Math.max(delay, 0);
+            //向上取整，保证绝不会提前触发
+            long targetTick = Math.max((deadline - startTime + tickDuration - 1) / tickDuration, tick);
+            timeout.remainingRounds = (targetTick - tick) / wheel.length;
+            wheel[(int) (targetTick & mask)].add(timeout);
+            pendingCount++;
+            notifyAll();
+        }
+        return timeout;
+    }
+
+    public synchronized int pendingTimeouts(){
+        return pendingCount;
+    }
+
+    //推进到当前时刻并执行所有到期任务，返回执行的数量；测试时可配合假时钟直接调用
+    int expireTimeouts(){
+        List<Timeout> expired = null;
+        synchronized (this){
+            long targetTick = currentTick(clock.uptimeMillis());
+            while (tick <= targetTick && pendingCount > 0){
+                Timeout timeout = wheel[(int) (tick & mask)].head;
+                while (timeout != null){
+                    Timeout next = timeout.next;
+                    if (timeout.remainingRounds <= 0){
+                        timeout.bucket.remove(timeout);
+                        pendingCount--;
+                        if (expired == null){
+                            expired = new ArrayList<>();
+                        }
+                        expired.add(timeout);
+                    } else {
+                        timeout.remainingRounds--;
+                    }
+                    timeout = next;
+                }
+                tick++;
+            }
+            if (pendingCount == 0){
+                tick = Math.max(tick, targetTick + 1);
+            }
+        }
+        if (expired == null){
+            return 0;
+        }
+        //任务在锁外执行，任务内部可以再次调用newTimeout；一个任务抛出异常不影响其余任务和工作线程
+        for (Timeout timeout : expired){
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "timeout task failed", e);
+            }
+        }
+        return expired.size();
+    }
+
+    private synchronized void awaitNextTick() throws InterruptedException {
+        while (true){
+            if (pendingCount == 0){
+                wait();
+                continue;
+            }
+            long sleep = startTime + tick * tickDuration - clock.uptimeMillis();
+            if (sleep <= 0){
+                return;
+            }
+            wait(sleep);
+        }
+    }
+
+    private long currentTick(long now){
+        return (now - startTime) / tickDuration;
+    }
+
+    public class Timeout {
+
+        private final Runnable task;
+
+        private long remainingRounds;
+
+        private Bucket bucket;
+
+        private Timeout prev;
+
+        private Timeout next;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        //任务已触发或已被取消时返回false
+        public boolean cancel(){
+            synchronized (TimerWheel.this){
+                if (bucket == null){
+                    return false;
+                }
+                bucket.remove(this);
+                pendingCount--;
+                return true;
+            }
+        }
+    }
+
+    private static class Bucket {
+
+        private Timeout head;
+
+        private Timeout tail;
+
+        private void add(Timeout timeout){
+            timeout.bucket = this;
+            if (head == null){
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(Timeout timeout){
+            if (timeout.prev != null){
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null){
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+}
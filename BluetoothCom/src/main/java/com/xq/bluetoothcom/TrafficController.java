@@ -0,0 +1,284 @@
+package com.xq.bluetoothcom;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.os.Build;
+
+//按流量调整连接参数：批量写入或高频通知开始时请求CONNECTION_PRIORITY_HIGH和2M PHY，
+//空闲IDLE_TIMEOUT后退回idlePriority和提速前的PHY。
+//连接参数和PHY的请求都作为CONTROL任务走串行队列，不和进行中的GATT操作并发；
+//已经占着队列的批量任务开始时直接在任务里提速，不用排在自己后面
+class TrafficController {
+
+    private static final long IDLE_TIMEOUT = 2*1000;
+
+    //统计通知频率的窗口，窗口内达到NOTIFY_BURST_COUNT条即视为高频
+    private static final long NOTIFY_WINDOW = 500;
+
+    private static final int NOTIFY_BURST_COUNT = 10;
+
+    private final BluetoothGatt bluetoothGatt;
+
+    private final SerialWorkManager serialWorkManager;
+
+    private final TimerWheel timerWheel;
+
+    private final Clock clock;
+
+    private volatile boolean enabled;
+
+    private int idlePriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+
+    private int connectionPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+
+    //boosted是期望的状态，applied是已经向协议栈请求过的状态，两者不同时由串行任务同步
+    private boolean boosted;
+
+    private boolean applied;
+
+    private boolean applyQueued;
+
+    private int txPhy = BluetoothDevice.PHY_LE_1M;
+
+    private int rxPhy = BluetoothDevice.PHY_LE_1M;
+
+    //提速前的PHY，退回时恢复
+    private int idleTxPhy = BluetoothDevice.PHY_LE_1M;
+
+    private int idleRxPhy = BluetoothDevice.PHY_LE_1M;
+
+    private long lastActivityTime;
+
+    private long notifyWindowStart;
+
+    private int notifyCount;
+
+    private TimerWheel.Timeout idleTimeout;
+
+    TrafficController(BluetoothGatt bluetoothGatt, SerialWorkManager serialWorkManager) {
+        this(bluetoothGatt, serialWorkManager, TimerWheel.shared(), Clock.SYSTEM);
+    }
+
+    TrafficController(BluetoothGatt bluetoothGatt, SerialWorkManager serialWorkManager, TimerWheel timerWheel, Clock clock) {
+        this.bluetoothGatt = bluetoothGatt;
+        this.serialWorkManager = serialWorkManager;
+        this.timerWheel = timerWheel;
+        this.clock = clock;
+    }
+
+    void setEnabled(boolean enabled, int idlePriority){
+        synchronized (this){
+            this.enabled = enabled;
+            this.idlePriority = idlePriority;
+            if (enabled || !boosted){
+                return;
+            }
+            cancelIdleTimeout();
+            boosted = false;
+        }
+        requestApply();
+    }
+
+    //手动请求时关闭自动调整，退回时也使用手动指定的优先级，避免被覆盖
+    boolean requestConnectionPriority(int priority, boolean manual){
+        if (manual && enabled){
+            setEnabled(false, priority);
+        }
+        synchronized (this){
+            return requestConnectionPriority(priority);
+        }
+    }
+
+    synchronized int getConnectionPriority() {
+        return connectionPriority;
+    }
+
+    //由onPhyUpdate/onPhyRead更新
+    synchronized void onPhyUpdate(int txPhy, int rxPhy){
+        this.txPhy = txPhy;
+        this.rxPhy = rxPhy;
+    }
+
+    //已经占着串行队列的批量任务开始时调用，直接提速
+    void onBulkStart(){
+        if (!enabled){
+            return;
+        }
+        synchronized (this){
+            lastActivityTime = clock.uptimeMillis();
+            boost();
+        }
+        apply();
+    }
+
+    //批量传输的每一包都会调用
+    void onBulkActivity(){
+        if (!enabled){
+            return;
+        }
+        synchronized (this){
+            lastActivityTime = clock.uptimeMillis();
+            if (!boost()){
+                return;
+            }
+        }
+        requestApply();
+    }
+
+    void onNotification(){
+        if (!enabled){
+            return;
+        }
+        synchronized (this){
+            long now = clock.uptimeMillis();
+            if (now - notifyWindowStart >= NOTIFY_WINDOW){
+                notifyWindowStart = now;
+                notifyCount = 0;
+            }
+            notifyCount++;
+            if (boosted){
+                lastActivityTime = now;
+                return;
+            }
+            if (notifyCount < NOTIFY_BURST_COUNT){
+                return;
+            }
+            lastActivityTime = now;
+            boost();
+        }
+        requestApply();
+    }
+
+    //连接已经断开，不再恢复连接参数
+    synchronized void close(){
+        enabled = false;
+        boosted = false;
+        applied = false;
+        cancelIdleTimeout();
+    }
+
+    //必须持有锁调用，返回是否从空闲切换到提速
+    private boolean boost(){
+        if (boosted){
+            return false;
+        }
+        boosted = true;
+        scheduleIdleCheck(IDLE_TIMEOUT);
+        return true;
+    }
+
+    //在串行队列外调用，排一个CONTROL任务同步状态，已经排队的任务执行时会读取最新的状态
+    private void requestApply(){
+        synchronized (this){
+            if (applyQueued){
+                return;
+            }
+            applyQueued = true;
+        }
+        SerialWorkManager.WorkRunnable workRunnable = serialWorkManager.new WorkRunnable() {
+            @Override
+            public void run() {
+                synchronized (TrafficController.this){
+                    applyQueued = false;
+                }
+                apply();
+                leave();
+            }
+
+            @Override
+            public void onClose() {
+                synchronized (TrafficController.this){
+                    applyQueued = false;
+                }
+            }
+
+            @Override
+            public void onRejected() {
+                onClose();
+            }
+        };
+        if (!serialWorkManager.joinWork(Priority.CONTROL, workRunnable)){
+            synchronized (this){
+                applyQueued = false;
+            }
+        }
+    }
+
+    //只在串行队列的任务里调用
+    @SuppressLint("NewApi")
+    private synchronized void apply(){
+        if (boosted == applied){
+            return;
+        }
+        applied = boosted;
+        if (boosted){
+            idleTxPhy = txPhy;
+            idleRxPhy = rxPhy;
+            requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O){
+                bluetoothGatt.setPreferredPhy(BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+            }
+        } else {
+            requestConnectionPriority(idlePriority);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O){
+                bluetoothGatt.setPreferredPhy(toPhyMask(idleTxPhy), toPhyMask(idleRxPhy), BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+            }
+        }
+    }
+
+    private static int toPhyMask(int phy){
+        switch (phy){
+            case BluetoothDevice.PHY_LE_2M:
+                return BluetoothDevice.PHY_LE_2M_MASK;
+            case BluetoothDevice.PHY_LE_CODED:
+                return BluetoothDevice.PHY_LE_CODED_MASK;
+            default:
+                return BluetoothDevice.PHY_LE_1M_MASK;
+        }
+    }
+
+    //必须持有锁调用
+    private void scheduleIdleCheck(long delay){
+        idleTimeout = timerWheel.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                onIdleCheck();
+            }
+        }, delay);
+    }
+
+    private void onIdleCheck(){
+        synchronized (this){
+            idleTimeout = null;
+            if (!boosted){
+                return;
+            }
+            long idle = clock.uptimeMillis() - lastActivityTime;
+            if (idle < IDLE_TIMEOUT){
+                scheduleIdleCheck(IDLE_TIMEOUT - idle);
+                return;
+            }
+            boosted = false;
+        }
+        requestApply();
+    }
+
+    //必须持有锁调用
+    private void cancelIdleTimeout(){
+        if (idleTimeout != null){
+            idleTimeout.cancel();
+            idleTimeout = null;
+        }
+    }
+
+    //必须持有锁调用
+    private boolean requestConnectionPriority(int priority){
+        if (bluetoothGatt.requestConnectionPriority(priority)){
+            connectionPriority = priority;
+            return true;
+        }
+        return false;
+    }
+
+}
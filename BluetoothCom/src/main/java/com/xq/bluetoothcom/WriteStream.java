@@ -0,0 +1,353 @@
+package com.xq.bluetoothcom;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+//以WRITE_TYPE_NO_RESPONSE连续写入的数据流，适用于固件升级、日志导出等大批量传输。
+//打开后会一直占用通道的串行队列直到close完成，期间最多保持windowSize个写入未被协议栈确认，
+//协议栈每回调一次onCharacteristicWrite就补充一次窗口。
+//超过通道的操作超时没有任何进展（新的写入或者协议栈确认）时以CODE_TIMEOUT失败并释放串行队列，
+//避免丢失一个回调就让通道一直卡住
+public class WriteStream {
+
+    private static final int DEFAULT_WINDOW_SIZE = 4;
+
+    private static final long PROGRESS_INTERVAL = 500;
+
+    private final BluetoothChannel bluetoothChannel;
+
+    private final BluetoothGatt bluetoothGatt;
+
+    private final GattCallbackDispatcher gattCallbackDispatcher;
+
+    private final CharacteristicRef ref;
+
+    private final Executor executor;
+
+    private final ReadCache readCache;
+
+    private final Queue<byte[]> pendingQueue = new ArrayDeque<>();
+
+    private final SerialWorkManager.WorkRunnable workRunnable;
+
+    private BluetoothGattCharacteristic characteristic;
+
+    private int originalWriteType;
+
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+
+    private int inFlight;
+
+    private final Queue<byte[]> inFlightQueue = new ArrayDeque<>();
+
+    private boolean started;
+
+    private boolean closing;
+
+    private boolean finished;
+
+    private String errorInfo;
+
+    private String errorCode;
+
+    private BluetoothChannel.OnActionCallback closeCallback;
+
+    private OnProgressListener onProgressListener;
+
+    private long startTime;
+
+    private long lastProgressTime;
+
+    private long bytesWritten;
+
+    private final int idleTimeout;
+
+    private long lastActivityTime;
+
+    private TimerWheel.Timeout idleCheck;
+
+    WriteStream(BluetoothChannel bluetoothChannel, BluetoothGatt bluetoothGatt, GattCallbackDispatcher gattCallbackDispatcher, SerialWorkManager serialWorkManager, Executor executor, ReadCache readCache, CharacteristicRef ref, Priority priority) {
+        this.bluetoothChannel = bluetoothChannel;
+        this.bluetoothGatt = bluetoothGatt;
+        this.gattCallbackDispatcher = gattCallbackDispatcher;
+        this.ref = ref;
+        this.executor = executor;
+        this.readCache = readCache;
+        this.idleTimeout = bluetoothChannel.getOperationTimeout();
+        this.workRunnable = serialWorkManager.new WorkRunnable(MetricsSink.Op.WRITE_STREAM) {
+            @Override
+            public void run() {
+                onStart();
+            }
+
+            @Override
+            public void onClose() {
+                synchronized (WriteStream.this){
+                    if (!finished){
+                        fail("writeStream disconnected", BluetoothChannel.CODE_DISCONNECTED);
+                    }
+                }
+                dispatchResult();
+            }
+
+            @Override
+            public void onRejected() {
+                synchronized (WriteStream.this){
+                    if (!finished){
+                        fail("writeStream rejected", "");
+                    }
+                }
+                dispatchResult();
+            }
+        };
+        //流结束前读取这个特征值都不使用缓存
+        readCache.onWriteQueued(ref);
+        if (!serialWorkManager.joinWork(priority, workRunnable)){
+            fail("openWriteStream error", "");
+        }
+    }
+
+    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            super.onCharacteristicWrite(gatt, characteristic, status);
+            if (characteristic == WriteStream.this.characteristic){
+                onWriteAck(status);
+            }
+        }
+    };
+
+    public synchronized WriteStream setWindowSize(int windowSize) {
+        if (windowSize <= 0){
+            throw new IllegalArgumentException("windowSize must be greater than 0");
+        }
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    public synchronized WriteStream setOnProgressListener(OnProgressListener onProgressListener) {
+        this.onProgressListener = onProgressListener;
+        return this;
+    }
+
+    //超过getMaxPayloadSize()的数据按当前MTU拆成多包，WRITE_TYPE_NO_RESPONSE下协议栈会直接截断超长的值。
+    //返回false说明流已经结束或者出错
+    public synchronized boolean write(byte[] bytes){
+        if (closing || finished){
+            return false;
+        }
+        int maxPayloadSize = bluetoothChannel.getMaxPayloadSize();
+        if (bytes.length <= maxPayloadSize){
+            pendingQueue.offer(bytes);
+        } else {
+            for (int offset = 0; offset < bytes.length; offset += maxPayloadSize){
+                pendingQueue.offer(Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + maxPayloadSize)));
+            }
+        }
+        lastActivityTime = Clock.SYSTEM.uptimeMillis();
+        pump();
+        return true;
+    }
+
+    //等待所有数据发送完毕后释放串行队列，callback只会回调一次
+    public void close(BluetoothChannel.OnActionCallback callback){
+        synchronized (this){
+            closeCallback = callback;
+            closing = true;
+            pump();
+        }
+        dispatchResult();
+    }
+
+    //丢弃所有未发送的数据并立即释放串行队列
+    public void abort(){
+        synchronized (this){
+            pendingQueue.clear();
+            if (finished){
+                return;
+            }
+            fail("writeStream aborted", "");
+        }
+        dispatchResult();
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public synchronized float getBytesPerSecond() {
+        if (startTime == 0){
+            return 0;
+        }
+        long elapsed = Clock.SYSTEM.uptimeMillis() - startTime;
+        return elapsed <= 0 ? 0 : bytesWritten * 1000f / elapsed;
+    }
+
+    private void onStart(){
+        synchronized (this){
+            if (finished){
+                return;
+            }
+            characteristic = bluetoothChannel.findCharacteristic(ref);
+            if (characteristic == null){
+                fail("openWriteStream error", "");
+            } else {
+                originalWriteType = characteristic.getWriteType();
+                characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+                gattCallbackDispatcher.registerGattCallback(gattCallback);
+                started = true;
+                startTime = lastProgressTime = lastActivityTime = Clock.SYSTEM.uptimeMillis();
+                scheduleIdleCheck(idleTimeout);
+                bluetoothChannel.onBulkStart();
+                pump();
+            }
+        }
+        dispatchResult();
+    }
+
+    private void onWriteAck(int status){
+        OnProgressListener progressListener = null;
+        long bytes = 0;
+        float bytesPerSecond = 0;
+        synchronized (this){
+            if (finished || inFlight == 0){
+                return;
+            }
+            inFlight--;
+            byte[] acked = inFlightQueue.poll();
+            if (status != BluetoothGatt.GATT_SUCCESS){
+                fail("onCharacteristicWrite fail", String.valueOf(status));
+            } else {
+                bytesWritten += acked == null ? 0 : acked.length;
+                long now = Clock.SYSTEM.uptimeMillis();
+                lastActivityTime = now;
+                if (onProgressListener != null && now - lastProgressTime >= PROGRESS_INTERVAL){
+                    lastProgressTime = now;
+                    progressListener = onProgressListener;
+                    bytes = bytesWritten;
+                    bytesPerSecond = getBytesPerSecond();
+                }
+                pump();
+            }
+        }
+        if (progressListener != null){
+            progressListener.onProgress(bytes, bytesPerSecond);
+        }
+        dispatchResult();
+    }
+
+    //必须持有锁调用
+    private void pump(){
+        if (!started || finished){
+            return;
+        }
+        while (inFlight < windowSize && !pendingQueue.isEmpty()){
+            byte[] bytes = pendingQueue.peek();
+            if (characteristic.setValue(bytes) && bluetoothGatt.writeCharacteristic(characteristic)){
+                pendingQueue.poll();
+                inFlightQueue.offer(bytes);
+                inFlight++;
+                bluetoothChannel.onBulkActivity();
+            } else if (inFlight > 0){
+                //协议栈忙，等下一次onCharacteristicWrite再补充窗口
+                return;
+            } else {
+                fail("writeCharacteristic error", "");
+                return;
+            }
+        }
+        if (closing && inFlight == 0 && pendingQueue.isEmpty()){
+            finish();
+        }
+    }
+
+    //必须持有锁调用，检查和超时回调与其它操作的超时一样在executor上执行
+    private void scheduleIdleCheck(long delay){
+        idleCheck = TimerWheel.shared().newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onIdleCheck();
+                    }
+                });
+            }
+        }, delay);
+    }
+
+    private void onIdleCheck(){
+        synchronized (this){
+            idleCheck = null;
+            if (finished){
+                return;
+            }
+            long idle = Clock.SYSTEM.uptimeMillis() - lastActivityTime;
+            if (idle < idleTimeout){
+                scheduleIdleCheck(idleTimeout - idle);
+                return;
+            }
+            fail("writeStream timeout", BluetoothChannel.CODE_TIMEOUT);
+        }
+        dispatchResult();
+    }
+
+    //必须持有锁调用
+    private void fail(String info, String code){
+        errorInfo = info;
+        errorCode = code;
+        finish();
+    }
+
+    //必须持有锁调用
+    private void finish(){
+        if (finished){
+            return;
+        }
+        finished = true;
+        readCache.onWriteFinished(ref);
+        if (idleCheck != null){
+            idleCheck.cancel();
+            idleCheck = null;
+        }
+        if (started){
+            gattCallbackDispatcher.unregisterGattCallback(gattCallback);
+            characteristic.setWriteType(originalWriteType);
+        }
+        pendingQueue.clear();
+        inFlightQueue.clear();
+        inFlight = 0;
+        workRunnable.leave();
+    }
+
+    private void dispatchResult(){
+        BluetoothChannel.OnActionCallback callback;
+        String info;
+        String code;
+        synchronized (this){
+            if (!finished || closeCallback == null){
+                return;
+            }
+            callback = closeCallback;
+            closeCallback = null;
+            info = errorInfo;
+            code = errorCode;
+        }
+        if (info == null){
+            callback.onSuccess();
+        } else {
+            callback.onError(info, code);
+        }
+    }
+
+    public interface OnProgressListener {
+        void onProgress(long bytesWritten, float bytesPerSecond);
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.xq.bluetoothcom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//日志里把回调数据转成十六进制字符串的开销，20为默认MTU下的单包，244和512为大MTU下的单包
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Bytes2HexStringBenchmark {
+
+    @Param({"20", "244", "512"})
+    public int size;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        bytes = new byte[size];
+        new Random(0).nextBytes(bytes);
+    }
+
+    @Benchmark
+    public String bytes2HexString() {
+        return GattCallbackDispatcher.bytes2HexString(bytes);
+    }
+
+}
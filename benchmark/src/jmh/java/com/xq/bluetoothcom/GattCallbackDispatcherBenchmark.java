@@ -0,0 +1,81 @@
+package com.xq.bluetoothcom;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.util.Log;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+//N个回调注册在分发器上时，一次普通回调和一次通知的分发开销
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GattCallbackDispatcherBenchmark {
+
+    @Param({"1", "4", "16", "64"})
+    public int callbackCount;
+
+    private GattCallbackDispatcher dispatcher;
+
+    private BluetoothGatt gatt;
+
+    private BluetoothGattCharacteristic characteristic;
+
+    private byte[] value;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        GattCallbackDispatcher.setLogLevel(Log.ASSERT);
+        dispatcher = new GattCallbackDispatcher("00:00:00:00:00:00");
+        gatt = new BluetoothGatt();
+        BluetoothGattService service = new BluetoothGattService(UUID.randomUUID());
+        characteristic = new BluetoothGattCharacteristic(service, UUID.randomUUID());
+        value = new byte[20];
+        characteristic.setValue(value);
+        for (int i = 0; i < callbackCount; i++){
+            dispatcher.registerGattCallback(new BluetoothGattCallback() {
+                @Override
+                public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                    blackhole.consume(status);
+                }
+            });
+            //一半通知监听在目标特征值上，另一半在其它特征值上，用来确认按UUID索引不受无关监听影响
+            UUID characterUUID = i % 2 == 0 ? characteristic.getUuid() : UUID.randomUUID();
+            dispatcher.registerNotifyCallback(characterUUID, new BluetoothGattCallback() {
+                @Override
+                public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                    blackhole.consume(characteristic);
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public void onCharacteristicWrite() {
+        dispatcher.onCharacteristicWrite(gatt, characteristic, BluetoothGatt.GATT_SUCCESS);
+    }
+
+    @Benchmark
+    public void onCharacteristicChanged() {
+        dispatcher.onCharacteristicChanged(gatt, characteristic);
+    }
+
+    @Benchmark
+    public void onCharacteristicChangedWithValue() {
+        dispatcher.onCharacteristicChanged(gatt, characteristic, value);
+    }
+
+}
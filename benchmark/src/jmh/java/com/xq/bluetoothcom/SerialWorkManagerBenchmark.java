@@ -0,0 +1,77 @@
+package com.xq.bluetoothcom;
+
+import android.os.Looper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+//串行队列的入队、调度、完成开销。替身Looper没有消息循环，由runPending()在当前线程执行投递的任务
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerialWorkManagerBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private SerialWorkManager serialWorkManager;
+
+    private Looper looper;
+
+    @Setup
+    public void setup() {
+        serialWorkManager = new SerialWorkManager();
+        looper = Looper.getMainLooper();
+    }
+
+    @TearDown
+    public void tearDown() {
+        serialWorkManager.close();
+    }
+
+    //一次入队到完成的往返时间
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public int joinAndComplete() {
+        serialWorkManager.joinWork(newWork());
+        return looper.runPending();
+    }
+
+    //带超时的任务会在时间轮上挂一个定时器，完成时取消
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public int joinAndCompleteWithTimeout() {
+        serialWorkManager.joinWork(10*1000, newWork());
+        return looper.runPending();
+    }
+
+    //先把一批不同优先级的任务全部入队，再依次执行完，衡量排队时的吞吐
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int batchThroughput() {
+        for (int i = 0; i < BATCH_SIZE; i++){
+            serialWorkManager.joinWork(PRIORITIES[i % PRIORITIES.length], newWork());
+        }
+        return looper.runPending();
+    }
+
+    private SerialWorkManager.WorkRunnable newWork(){
+        return serialWorkManager.new WorkRunnable() {
+            @Override
+            public void run() {
+                leave();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,6 @@
+package android.annotation;
+
+//基准测试用的替身，只保留编译所需的部分
+public @interface SuppressLint {
+    String[] value();
+}
@@ -0,0 +1,16 @@
+package android.bluetooth;
+
+//测试用的替身
+public final class BluetoothAdapter {
+
+    private static final BluetoothAdapter DEFAULT_ADAPTER = new BluetoothAdapter();
+
+    public static BluetoothAdapter getDefaultAdapter() {
+        return DEFAULT_ADAPTER;
+    }
+
+    public BluetoothDevice getRemoteDevice(String address) {
+        return new BluetoothDevice(address);
+    }
+
+}
@@ -0,0 +1,59 @@
+package android.bluetooth;
+
+import android.content.Context;
+import android.os.Handler;
+
+import java.io.IOException;
+
+//测试用的替身，连接和L2CAP默认失败，由测试里的子类按需实现
+public class BluetoothDevice {
+
+    public static final int TRANSPORT_AUTO = 0;
+    public static final int TRANSPORT_BREDR = 1;
+    public static final int TRANSPORT_LE = 2;
+
+    public static final int PHY_LE_1M = 1;
+    public static final int PHY_LE_2M = 2;
+    public static final int PHY_LE_CODED = 3;
+
+    public static final int PHY_LE_1M_MASK = 1;
+    public static final int PHY_LE_2M_MASK = 2;
+    public static final int PHY_LE_CODED_MASK = 4;
+
+    public static final int PHY_OPTION_NO_PREFERRED = 0;
+
+    private final String address;
+
+    public BluetoothDevice(String address) {
+        this.address = address;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getName() {
+        return null;
+    }
+
+    public BluetoothGatt connectGatt(Context context, boolean autoConnect, BluetoothGattCallback callback) {
+        return null;
+    }
+
+    public BluetoothGatt connectGatt(Context context, boolean autoConnect, BluetoothGattCallback callback, int transport) {
+        return connectGatt(context, autoConnect, callback);
+    }
+
+    public BluetoothGatt connectGatt(Context context, boolean autoConnect, BluetoothGattCallback callback, int transport, int phy, Handler handler) {
+        return connectGatt(context, autoConnect, callback, transport);
+    }
+
+    public BluetoothSocket createL2capChannel(int psm) throws IOException {
+        throw new IOException("not supported");
+    }
+
+    public BluetoothSocket createInsecureL2capChannel(int psm) throws IOException {
+        throw new IOException("not supported");
+    }
+
+}
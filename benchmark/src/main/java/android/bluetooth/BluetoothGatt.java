@@ -0,0 +1,109 @@
+package android.bluetooth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+//测试用的替身，所有操作默认失败，由测试里的子类按需实现
+public class BluetoothGatt implements BluetoothProfile {
+
+    public static final int GATT_SUCCESS = 0;
+    public static final int GATT_FAILURE = 257;
+
+    public static final int CONNECTION_PRIORITY_BALANCED = 0;
+    public static final int CONNECTION_PRIORITY_HIGH = 1;
+    public static final int CONNECTION_PRIORITY_LOW_POWER = 2;
+
+    private final BluetoothDevice device;
+
+    private final List<BluetoothGattService> services = new ArrayList<>();
+
+    public BluetoothGatt() {
+        this(null);
+    }
+
+    public BluetoothGatt(BluetoothDevice device) {
+        this.device = device;
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    public List<BluetoothGattService> getServices() {
+        return services;
+    }
+
+    public BluetoothGattService getService(UUID uuid) {
+        for (BluetoothGattService service : services){
+            if (service.getUuid().equals(uuid)){
+                return service;
+            }
+        }
+        return null;
+    }
+
+    public boolean connect() {
+        return false;
+    }
+
+    public void disconnect() {
+    }
+
+    public void close() {
+    }
+
+    public boolean discoverServices() {
+        return false;
+    }
+
+    public boolean requestMtu(int mtu) {
+        return false;
+    }
+
+    public boolean requestConnectionPriority(int connectionPriority) {
+        return false;
+    }
+
+    public void setPreferredPhy(int txPhy, int rxPhy, int phyOptions) {
+    }
+
+    public void readPhy() {
+    }
+
+    public boolean readRemoteRssi() {
+        return false;
+    }
+
+    public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return false;
+    }
+
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return false;
+    }
+
+    public boolean readDescriptor(BluetoothGattDescriptor descriptor) {
+        return false;
+    }
+
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        return false;
+    }
+
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        return false;
+    }
+
+    public boolean beginReliableWrite() {
+        return false;
+    }
+
+    public boolean executeReliableWrite() {
+        return false;
+    }
+
+    public void abortReliableWrite() {
+    }
+
+}
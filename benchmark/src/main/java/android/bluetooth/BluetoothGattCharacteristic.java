@@ -0,0 +1,91 @@
+package android.bluetooth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+//测试用的替身，与真实实现不同，构造时直接挂到service下
+public class BluetoothGattCharacteristic {
+
+    public static final int PROPERTY_READ = 0x02;
+    public static final int PROPERTY_WRITE_NO_RESPONSE = 0x04;
+    public static final int PROPERTY_WRITE = 0x08;
+    public static final int PROPERTY_NOTIFY = 0x10;
+    public static final int PROPERTY_INDICATE = 0x20;
+
+    public static final int WRITE_TYPE_NO_RESPONSE = 0x01;
+    public static final int WRITE_TYPE_DEFAULT = 0x02;
+    public static final int WRITE_TYPE_SIGNED = 0x04;
+
+    private final BluetoothGattService service;
+
+    private final UUID uuid;
+
+    private final int properties;
+
+    private final List<BluetoothGattDescriptor> descriptors = new ArrayList<>();
+
+    private int writeType = WRITE_TYPE_DEFAULT;
+
+    private byte[] value;
+
+    public BluetoothGattCharacteristic(BluetoothGattService service, UUID uuid) {
+        this(service, uuid, PROPERTY_READ | PROPERTY_WRITE | PROPERTY_NOTIFY);
+    }
+
+    public BluetoothGattCharacteristic(BluetoothGattService service, UUID uuid, int properties) {
+        this.service = service;
+        this.uuid = uuid;
+        this.properties = properties;
+        if (service != null){
+            service.getCharacteristics().add(this);
+        }
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public BluetoothGattService getService() {
+        return service;
+    }
+
+    public int getProperties() {
+        return properties;
+    }
+
+    public int getPermissions() {
+        return 0;
+    }
+
+    public List<BluetoothGattDescriptor> getDescriptors() {
+        return descriptors;
+    }
+
+    public BluetoothGattDescriptor getDescriptor(UUID uuid) {
+        for (BluetoothGattDescriptor descriptor : descriptors){
+            if (descriptor.getUuid().equals(uuid)){
+                return descriptor;
+            }
+        }
+        return null;
+    }
+
+    public int getWriteType() {
+        return writeType;
+    }
+
+    public void setWriteType(int writeType) {
+        this.writeType = writeType;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    public boolean setValue(byte[] value) {
+        this.value = value;
+        return true;
+    }
+
+}
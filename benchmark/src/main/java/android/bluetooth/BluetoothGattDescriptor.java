@@ -0,0 +1,43 @@
+package android.bluetooth;
+
+import java.util.UUID;
+
+//测试用的替身，与真实实现不同，构造时直接挂到characteristic下
+public class BluetoothGattDescriptor {
+
+    public static final byte[] ENABLE_NOTIFICATION_VALUE = {0x01, 0x00};
+    public static final byte[] ENABLE_INDICATION_VALUE = {0x02, 0x00};
+    public static final byte[] DISABLE_NOTIFICATION_VALUE = {0x00, 0x00};
+
+    private final BluetoothGattCharacteristic characteristic;
+
+    private final UUID uuid;
+
+    private byte[] value;
+
+    public BluetoothGattDescriptor(BluetoothGattCharacteristic characteristic, UUID uuid) {
+        this.characteristic = characteristic;
+        this.uuid = uuid;
+        if (characteristic != null){
+            characteristic.getDescriptors().add(this);
+        }
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public BluetoothGattCharacteristic getCharacteristic() {
+        return characteristic;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    public boolean setValue(byte[] value) {
+        this.value = value;
+        return true;
+    }
+
+}
@@ -0,0 +1,49 @@
+package android.bluetooth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+//测试用的替身
+public class BluetoothGattService {
+
+    public static final int SERVICE_TYPE_PRIMARY = 0;
+    public static final int SERVICE_TYPE_SECONDARY = 1;
+
+    private final UUID uuid;
+
+    private final int type;
+
+    private final List<BluetoothGattCharacteristic> characteristics = new ArrayList<>();
+
+    public BluetoothGattService(UUID uuid) {
+        this(uuid, SERVICE_TYPE_PRIMARY);
+    }
+
+    public BluetoothGattService(UUID uuid, int serviceType) {
+        this.uuid = uuid;
+        this.type = serviceType;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public List<BluetoothGattCharacteristic> getCharacteristics() {
+        return characteristics;
+    }
+
+    public BluetoothGattCharacteristic getCharacteristic(UUID uuid) {
+        for (BluetoothGattCharacteristic characteristic : characteristics){
+            if (characteristic.getUuid().equals(uuid)){
+                return characteristic;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,11 @@
+package android.bluetooth;
+
+//基准测试用的替身
+public interface BluetoothProfile {
+
+    int STATE_DISCONNECTED = 0;
+    int STATE_CONNECTING = 1;
+    int STATE_CONNECTED = 2;
+    int STATE_DISCONNECTING = 3;
+
+}
@@ -0,0 +1,46 @@
+package android.bluetooth;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+//测试用的替身，只用于编译，JVM上没有可用的L2CAP
+public final class BluetoothSocket implements Closeable {
+
+    private BluetoothSocket() {
+    }
+
+    public BluetoothDevice getRemoteDevice() {
+        return null;
+    }
+
+    public void connect() throws IOException {
+        throw new IOException("not supported");
+    }
+
+    public boolean isConnected() {
+        return false;
+    }
+
+    public InputStream getInputStream() throws IOException {
+        throw new IOException("not supported");
+    }
+
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("not supported");
+    }
+
+    public int getMaxTransmitPacketSize() {
+        return 0;
+    }
+
+    public int getMaxReceivePacketSize() {
+        return 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+}
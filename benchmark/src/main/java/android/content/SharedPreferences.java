@@ -0,0 +1,32 @@
+package android.content;
+
+//测试用的替身，只保留用到的部分
+public interface SharedPreferences {
+
+    int getInt(String key, int defValue);
+
+    long getLong(String key, long defValue);
+
+    String getString(String key, String defValue);
+
+    boolean contains(String key);
+
+    Editor edit();
+
+    interface Editor {
+
+        Editor putInt(String key, int value);
+
+        Editor putLong(String key, long value);
+
+        Editor putString(String key, String value);
+
+        Editor remove(String key);
+
+        boolean commit();
+
+        void apply();
+
+    }
+
+}
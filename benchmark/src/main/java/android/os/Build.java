@@ -0,0 +1,26 @@
+package android.os;
+
+//测试用的替身，SDK_INT取系统属性android.sdk，默认按API 33处理
+public class Build {
+
+    public static class VERSION {
+
+        public static final int SDK_INT = Integer.getInteger("android.sdk", 33);
+
+    }
+
+    public static class VERSION_CODES {
+
+        public static final int LOLLIPOP = 21;
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int O = 26;
+        public static final int P = 28;
+        public static final int Q = 29;
+        public static final int R = 30;
+        public static final int S = 31;
+        public static final int TIRAMISU = 33;
+
+    }
+
+}
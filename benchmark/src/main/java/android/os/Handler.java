@@ -0,0 +1,26 @@
+package android.os;
+
+//基准测试用的替身，延迟投递按立即投递处理
+public class Handler {
+
+    private final Looper looper;
+
+    public Handler(Looper looper) {
+        this.looper = looper;
+    }
+
+    public final boolean post(Runnable runnable) {
+        looper.enqueue(runnable);
+        return true;
+    }
+
+    public final boolean postDelayed(Runnable runnable, long delayMillis) {
+        looper.enqueue(runnable);
+        return true;
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+
+}
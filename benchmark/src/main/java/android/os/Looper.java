@@ -0,0 +1,31 @@
+package android.os;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//基准测试用的替身：没有真正的消息循环，投递的任务由runPending()在调用线程上执行
+public final class Looper {
+
+    private static final Looper MAIN_LOOPER = new Looper();
+
+    private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+    public static Looper getMainLooper() {
+        return MAIN_LOOPER;
+    }
+
+    void enqueue(Runnable runnable) {
+        queue.offer(runnable);
+    }
+
+    //执行所有已投递的任务，包括执行过程中新投递的，返回执行的数量
+    public int runPending() {
+        int count = 0;
+        Runnable runnable;
+        while ((runnable = queue.poll()) != null) {
+            runnable.run();
+            count++;
+        }
+        return count;
+    }
+
+}
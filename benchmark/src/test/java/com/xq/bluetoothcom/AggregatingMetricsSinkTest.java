@@ -0,0 +1,63 @@
+package com.xq.bluetoothcom;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AggregatingMetricsSinkTest {
+
+    private static final String A = "00:00:00:00:00:0A";
+
+    private static final String B = "00:00:00:00:00:0B";
+
+    private static final UUID CHARACTERISTIC = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+
+    @Test
+    public void aggregatesPerDeviceAndTotal() {
+        FakeClock clock = new FakeClock();
+        AggregatingMetricsSink sink = new AggregatingMetricsSink(clock);
+        sink.recordOp(A, MetricsSink.Op.WRITE_CHARACTERISTIC, 1, 10);
+        sink.recordOp(A, MetricsSink.Op.WRITE_CHARACTERISTIC, 2, 20);
+        sink.recordOp(B, MetricsSink.Op.WRITE_CHARACTERISTIC, 3, 30);
+        sink.recordTimeout(B, MetricsSink.Op.READ_CHARACTERISTIC);
+        sink.recordConnectAttempt(A, 0);
+        sink.recordConnectAttempt(B, 0);
+        sink.recordConnectAttempt(B, 1);
+        sink.recordNotification(A, CHARACTERISTIC, 20);
+        sink.recordNotification(B, CHARACTERISTIC, 100);
+
+        assertEquals(2, sink.getDeviceMetrics(A).getOnAirHistogram(MetricsSink.Op.WRITE_CHARACTERISTIC).getCount());
+        assertEquals(1, sink.getDeviceMetrics(B).getOnAirHistogram(MetricsSink.Op.WRITE_CHARACTERISTIC).getCount());
+        assertEquals(3, sink.getOnAirHistogram(MetricsSink.Op.WRITE_CHARACTERISTIC).getCount());
+
+        assertEquals(0, sink.getDeviceMetrics(A).getTimeoutCount(MetricsSink.Op.READ_CHARACTERISTIC));
+        assertEquals(1, sink.getDeviceMetrics(B).getTimeoutCount(MetricsSink.Op.READ_CHARACTERISTIC));
+        assertEquals(1, sink.getTimeoutCount(MetricsSink.Op.READ_CHARACTERISTIC));
+
+        assertEquals(0, sink.getDeviceMetrics(A).getConnectRetries());
+        assertEquals(1, sink.getDeviceMetrics(B).getConnectRetries());
+        assertEquals(3, sink.getConnectAttempts());
+
+        assertEquals(20, sink.getDeviceMetrics(A).getNotificationBytes(CHARACTERISTIC));
+        assertEquals(120, sink.getNotificationBytes(CHARACTERISTIC));
+        assertEquals(2, sink.getDevices().size());
+
+        sink.removeDevice(A);
+        assertNull(sink.getDeviceMetrics(A));
+        sink.reset();
+        assertEquals(0, sink.getDevices().size());
+        assertEquals(0, sink.getConnectAttempts());
+    }
+
+    @Test
+    public void rollUpCanBeDisabled() {
+        AggregatingMetricsSink sink = new AggregatingMetricsSink(new FakeClock(), false);
+        sink.recordServicesDiscovered(A, 500);
+        assertEquals(1, sink.getDeviceMetrics(A).getServicesDiscoveredHistogram().getCount());
+        assertEquals(0, sink.getTotal().getServicesDiscoveredHistogram().getCount());
+    }
+
+}
@@ -0,0 +1,258 @@
+package com.xq.bluetoothcom;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class BluetoothComTest {
+
+    private static final String MAC = "00:00:00:00:00:01";
+
+    private static final int PSM = 0x80;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final List<String> events = new ArrayList<>();
+
+    private final List<FakeGatt> gatts = new ArrayList<>();
+
+    private BluetoothCom bluetoothCom;
+
+    //connectGatt只返回一个不会回调的gatt，连接一直停在CONNECTING
+    private final BluetoothDevice device = new BluetoothDevice(MAC) {
+        @Override
+        public BluetoothGatt connectGatt(Context context, boolean autoConnect, BluetoothGattCallback callback) {
+            FakeGatt gatt = new FakeGatt(MAC);
+            gatts.add(gatt);
+            return gatt;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        bluetoothCom = new BluetoothCom(new Context() {
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+
+            @Override
+            public File getCacheDir() {
+                return new File(System.getProperty("java.io.tmpdir"));
+            }
+
+            @Override
+            public SharedPreferences getSharedPreferences(String name, int mode) {
+                return new MemorySharedPreferences();
+            }
+        }, DIRECT);
+    }
+
+    @Test
+    public void disconnectWhileConnectingFailsAllWaiters() {
+        bluetoothCom.connect(device, 0, 1, listener("first"));
+        bluetoothCom.connect(device, 0, 1, listener("second"));
+        assertEquals(DeviceState.CONNECTING, bluetoothCom.getDeviceState(MAC));
+        assertEquals(1, gatts.size());
+
+        assertTrue(bluetoothCom.disconnect(MAC));
+        assertEquals("[first disconnected cancelled, second disconnected cancelled]", events.toString());
+        assertEquals(DeviceState.IDLE, bluetoothCom.getDeviceState(MAC));
+        assertFalse(bluetoothCom.disconnect(MAC));
+    }
+
+    @Test
+    public void openCircuitFailsThroughExecutor() {
+        final List<Runnable> posted = new ArrayList<>();
+        bluetoothCom = new BluetoothCom(null, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                posted.add(command);
+            }
+        });
+        bluetoothCom.setRetryPolicy(new RetryPolicy() {
+            @Override
+            public boolean allowConnect(String device) {
+                return false;
+            }
+
+            @Override
+            public long nextDelay(String device, int retryCount, long elapsed) {
+                return STOP;
+            }
+
+            @Override
+            public void onSuccess(String device) {
+            }
+
+            @Override
+            public void onFailure(String device) {
+            }
+        });
+        bluetoothCom.connect(device, 0, 1, listener("blocked"));
+        assertEquals("[]", events.toString());
+        assertEquals(1, posted.size());
+        posted.get(0).run();
+        assertEquals("[blocked circuit open ]", events.toString());
+    }
+
+    //L2CAP连接在ioExecutor上建立，结果通过DIRECT在io线程上回调
+    @Test
+    public void l2capStreamRoundTrip() throws Exception {
+        MemoryConnector connector = new MemoryConnector(0);
+        bluetoothCom.setStreamConnector(connector);
+        StreamResult result = new StreamResult();
+        bluetoothCom.connectL2cap(device, PSM, true, 1, result);
+        StreamConnection connection = result.take();
+        assertNotNull(connection);
+        assertEquals(DeviceState.READY, bluetoothCom.getStreamState(MAC, PSM));
+
+        MemoryStreamConnection peer = connector.peers.get(0);
+        OutputStream out = connection.getOutputStream();
+        out.write(new byte[]{1, 2, 3});
+        out.flush();
+        assertArrayEquals(new byte[]{1, 2, 3}, readFully(peer.getInputStream(), 3));
+        peer.getOutputStream().write(new byte[]{4, 5});
+        assertArrayEquals(new byte[]{4, 5}, readFully(connection.getInputStream(), 2));
+
+        connection.close();
+        assertEquals(DeviceState.IDLE, bluetoothCom.getStreamState(MAC, PSM));
+        assertEquals(-1, peer.getInputStream().read());
+    }
+
+    @Test
+    public void l2capRetriesCreateFailure() throws Exception {
+        MemoryConnector connector = new MemoryConnector(1);
+        bluetoothCom.setStreamConnector(connector);
+        bluetoothCom.setRetryPolicy(new ExponentialBackoffRetryPolicy(Clock.SYSTEM, new Random(1)).setDelay(1, 1));
+        StreamResult result = new StreamResult();
+        bluetoothCom.connectL2cap(device, PSM, true, 2, result);
+        assertNotNull(result.take());
+        assertEquals(2, connector.creates);
+        assertTrue(bluetoothCom.disconnectL2cap(MAC, PSM));
+    }
+
+    //L2CAP的熔断按MAC+PSM记录，不影响同一设备的GATT连接
+    @Test
+    public void l2capFailuresDoNotOpenGattCircuit() throws Exception {
+        ExponentialBackoffRetryPolicy retryPolicy = new ExponentialBackoffRetryPolicy().setCircuitBreaker(1, 60*1000, 60*1000);
+        bluetoothCom.setRetryPolicy(retryPolicy);
+        bluetoothCom.setStreamConnector(new MemoryConnector(Integer.MAX_VALUE));
+        StreamResult result = new StreamResult();
+        bluetoothCom.connectL2cap(device, PSM, true, 1, result);
+        assertEquals("l2cap create fail: refused", result.takeError());
+
+        assertTrue(retryPolicy.getOpenRemaining(MAC + "/" + PSM) > 0);
+        assertEquals(0, retryPolicy.getOpenRemaining(MAC));
+        bluetoothCom.connectL2cap(device, PSM, true, 1, result);
+        assertEquals("circuit open", result.takeError());
+        bluetoothCom.connect(device, 0, 1, listener("gatt"));
+        assertEquals(DeviceState.CONNECTING, bluetoothCom.getDeviceState(MAC));
+        bluetoothCom.disconnect(MAC);
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < length){
+            int count = in.read(bytes, offset, length - offset);
+            assertTrue(count > 0);
+            offset += count;
+        }
+        return bytes;
+    }
+
+    //前failures次create抛出IOException，之后返回内存管道的一端
+    private static class MemoryConnector implements StreamConnector {
+
+        private final int failures;
+
+        private volatile int creates;
+
+        private final List<MemoryStreamConnection> peers = new ArrayList<>();
+
+        MemoryConnector(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public synchronized StreamConnection create(BluetoothDevice device, int psm, boolean secure) throws IOException {
+            if (creates++ < failures){
+                throw new IOException("refused");
+            }
+            MemoryStreamConnection[] pair = MemoryStreamConnection.pair(device.getAddress());
+            peers.add(pair[1]);
+            return pair[0];
+        }
+    }
+
+    private static class StreamResult implements BluetoothCom.OnStreamConnectListener {
+
+        private final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onSuccess(StreamConnection connection) {
+            results.add(connection);
+        }
+
+        @Override
+        public void onError(String info, String code) {
+            results.add(info);
+        }
+
+        StreamConnection take() throws InterruptedException {
+            Object result = results.poll(5, TimeUnit.SECONDS);
+            assertTrue(String.valueOf(result), result instanceof StreamConnection);
+            return (StreamConnection) result;
+        }
+
+        String takeError() throws InterruptedException {
+            Object result = results.poll(5, TimeUnit.SECONDS);
+            assertTrue(String.valueOf(result), result instanceof String);
+            return (String) result;
+        }
+    }
+
+    private BluetoothCom.OnConnectListener listener(final String name){
+        return new BluetoothCom.OnConnectListener() {
+            @Override
+            public void onSuccess(BluetoothChannel bluetoothChannel) {
+                events.add(name + " success");
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                events.add(name + " " + info + " " + code);
+            }
+        };
+    }
+
+}
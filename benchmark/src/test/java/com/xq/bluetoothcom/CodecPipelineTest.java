@@ -0,0 +1,113 @@
+package com.xq.bluetoothcom;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CodecPipelineTest {
+
+    private static final byte[] CHECK_INPUT = "123456789".getBytes(Charset.forName("US-ASCII"));
+
+    //各协议的分隔符和转义字符
+    private static final int[] SPECIAL_BYTES = {0x00, 0xC0, 0xDB, 0xDC, 0xDD, 0xFF};
+
+    private final List<byte[]> messages = new ArrayList<>();
+
+    private final List<String> errors = new ArrayList<>();
+
+    //CRC-16/CCITT-FALSE和CRC-32的标准校验值
+    @Test
+    public void checksumsMatchCheckValues() {
+        assertEquals(0x29B1, ChecksumCodec.crc16(CHECK_INPUT, 0, CHECK_INPUT.length));
+        assertEquals(0xCBF43926L, ChecksumCodec.crc32(CHECK_INPUT, 0, CHECK_INPUT.length));
+    }
+
+    //随机内容按随机大小分片收到，解出的消息与发出的一致
+    @Test
+    public void randomChunkedRoundTrip() throws Exception {
+        CodecPipeline<byte[]> pipeline = pipeline();
+        Random random = new Random(1);
+        for (int round = 0; round < 2000; round++){
+            List<byte[]> sent = new ArrayList<>();
+            ByteArrayOutputStream wire = new ByteArrayOutputStream();
+            int count = 1 + random.nextInt(4);
+            for (int i = 0; i < count; i++){
+                byte[] message = randomMessage(random);
+                sent.add(message);
+                wire.write(pipeline.encode(message));
+            }
+            byte[] bytes = wire.toByteArray();
+            for (int offset = 0; offset < bytes.length; ){
+                int length = Math.min(bytes.length - offset, 1 + random.nextInt(244));
+                pipeline.onReceive(Arrays.copyOfRange(bytes, offset, offset + length));
+                offset += length;
+            }
+            assertEquals("round " + round, "[]", errors.toString());
+            assertEquals("round " + round, sent.size(), messages.size());
+            for (int i = 0; i < sent.size(); i++){
+                assertArrayEquals("round " + round, sent.get(i), messages.get(i));
+            }
+            messages.clear();
+        }
+    }
+
+    @Test
+    public void corruptedFrameReportsError() throws Exception {
+        CodecPipeline<byte[]> pipeline = new CodecPipeline<byte[]>()
+                .addOutbound(new ChecksumCodec.Appender(ChecksumCodec.Type.CRC16))
+                .addInbound(new ChecksumCodec.Verifier(ChecksumCodec.Type.CRC16));
+        pipeline.setOnMessageListener(listener());
+        byte[] bytes = pipeline.encode(CHECK_INPUT);
+        bytes[0] ^= 1;
+        pipeline.onReceive(bytes);
+        assertTrue(messages.isEmpty());
+        assertEquals(1, errors.size());
+    }
+
+    private CodecPipeline<byte[]> pipeline(){
+        CodecPipeline<byte[]> pipeline = new CodecPipeline<byte[]>()
+                .addOutbound(new ChecksumCodec.Appender(ChecksumCodec.Type.CRC16))
+                .addOutbound(new CobsCodec.Encoder())
+                .addOutbound(new SlipCodec.Encoder())
+                .addOutbound(new LengthFieldCodec.Encoder(2))
+                .addInbound(new LengthFieldCodec.Decoder(2))
+                .addInbound(new SlipCodec.Decoder())
+                .addInbound(new CobsCodec.Decoder())
+                .addInbound(new ChecksumCodec.Verifier(ChecksumCodec.Type.CRC16));
+        pipeline.setOnMessageListener(listener());
+        return pipeline;
+    }
+
+    private CodecPipeline.OnMessageListener<byte[]> listener(){
+        return new CodecPipeline.OnMessageListener<byte[]>() {
+            @Override
+            public void onMessage(byte[] message) {
+                messages.add(message);
+            }
+
+            @Override
+            public void onError(CodecPipeline.CodecException e) {
+                errors.add(e.getMessage());
+            }
+        };
+    }
+
+    //四分之一的字节取各协议的特殊字节
+    private static byte[] randomMessage(Random random){
+        byte[] message = new byte[1 + random.nextInt(700)];
+        for (int i = 0; i < message.length; i++){
+            message[i] = (byte) (random.nextInt(4) == 0 ? SPECIAL_BYTES[random.nextInt(SPECIAL_BYTES.length)] : random.nextInt(256));
+        }
+        return message;
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.xq.bluetoothcom;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DiscoverDelayTunerTest {
+
+    private static final String DEVICE = "00:00:00:00:00:01";
+
+    private MemorySharedPreferences preferences;
+
+    private DiscoverDelayTuner tuner;
+
+    @Before
+    public void setUp() {
+        preferences = new MemorySharedPreferences();
+        tuner = new DiscoverDelayTuner(preferences);
+    }
+
+    @Test
+    public void shrinksOnlyAfterFullWindowOfSuccess() {
+        int delay = tuner.getDelay(DEVICE);
+        for (int i = 0; i < 15; i++){
+            tuner.onSuccess(DEVICE, delay);
+        }
+        assertEquals(delay, tuner.getDelay(DEVICE));
+        tuner.onSuccess(DEVICE, delay);
+        assertEquals(delay - 100, tuner.getDelay(DEVICE));
+    }
+
+    @Test
+    public void singleFailureDoesNotGrowLearnedDelay() {
+        int delay = tuner.getDelay(DEVICE);
+        assertEquals(delay * 2, tuner.onFailure(DEVICE, delay));
+        assertEquals(delay, tuner.getDelay(DEVICE));
+        //一次失败仍然可以缩短
+        for (int i = 0; i < 15; i++){
+            tuner.onSuccess(DEVICE, delay);
+        }
+        assertEquals(delay - 100, tuner.getDelay(DEVICE));
+    }
+
+    @Test
+    public void repeatedFailuresInWindowGrowDelay() {
+        int delay = tuner.getDelay(DEVICE);
+        tuner.onFailure(DEVICE, delay);
+        tuner.onSuccess(DEVICE, delay);
+        tuner.onFailure(DEVICE, delay);
+        assertEquals(delay, tuner.getDelay(DEVICE));
+        tuner.onFailure(DEVICE, delay);
+        assertEquals(delay * 2, tuner.getDelay(DEVICE));
+        assertEquals(1f, tuner.getSuccessRate(DEVICE), 0);
+    }
+
+    @Test
+    public void failuresAgeOutOfWindow() {
+        int delay = tuner.getDelay(DEVICE);
+        tuner.onFailure(DEVICE, delay);
+        tuner.onFailure(DEVICE, delay);
+        for (int i = 0; i < 14; i++){
+            tuner.onSuccess(DEVICE, delay);
+        }
+        assertEquals(14 / 16f, tuner.getSuccessRate(DEVICE), 0.0001);
+        assertEquals(delay, tuner.getDelay(DEVICE));
+        //第一次失败滑出窗口后只剩一次失败，可以缩短
+        tuner.onSuccess(DEVICE, delay);
+        assertEquals(delay - 100, tuner.getDelay(DEVICE));
+    }
+
+    @Test
+    public void neverShrinksBelowMinimum() {
+        for (int round = 0; round < 20; round++){
+            int delay = tuner.getDelay(DEVICE);
+            for (int i = 0; i < 16; i++){
+                tuner.onSuccess(DEVICE, delay);
+            }
+        }
+        assertEquals(DiscoverDelayTuner.MIN_DELAY, tuner.getDelay(DEVICE));
+    }
+
+    @Test
+    public void retriesAtLongerDelayAreNotCounted() {
+        int delay = tuner.getDelay(DEVICE);
+        int longer = tuner.onFailure(DEVICE, delay);
+        tuner.onSuccess(DEVICE, longer);
+        tuner.onFailure(DEVICE, longer);
+        assertEquals(0f, tuner.getSuccessRate(DEVICE), 0);
+    }
+
+    @Test
+    public void stateSurvivesRestart() {
+        int delay = tuner.getDelay(DEVICE);
+        for (int i = 0; i < 16; i++){
+            tuner.onSuccess(DEVICE, delay);
+        }
+        tuner.onFailure(DEVICE, delay - 100);
+        DiscoverDelayTuner restarted = new DiscoverDelayTuner(preferences);
+        assertEquals(delay - 100, restarted.getDelay(DEVICE));
+        assertEquals(0f, restarted.getSuccessRate(DEVICE), 0);
+    }
+
+    @Test
+    public void storedZeroDelayIsRaisedToMinimum() {
+        preferences.edit().putInt("delay_" + DEVICE, 0).apply();
+        assertEquals(DiscoverDelayTuner.MIN_DELAY, new DiscoverDelayTuner(preferences).getDelay(DEVICE));
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.xq.bluetoothcom;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExponentialBackoffRetryPolicyTest {
+
+    private static final String DEVICE = "00:00:00:00:00:01";
+
+    private FakeClock clock;
+
+    private ExponentialBackoffRetryPolicy policy;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        policy = new ExponentialBackoffRetryPolicy(clock, new Random(42))
+                .setDelay(1000, 8000)
+                .setMaxElapsed(2*60*1000)
+                .setCircuitBreaker(3, 60*1000, 4*60*1000);
+    }
+
+    @Test
+    public void delayStaysWithinJitterCeiling() {
+        long[] ceilings = {1000, 2000, 4000, 8000, 8000, 8000};
+        for (int retry = 1; retry <= ceilings.length; retry++){
+            long max = 0;
+            for (int i = 0; i < 2000; i++){
+                long delay = policy.nextDelay(DEVICE, retry, 0);
+                assertTrue(delay >= 0 && delay <= ceilings[retry - 1]);
+                max = Math.max(max, delay);
+            }
+            //全抖动应该覆盖到接近上限
+            assertTrue("retry " + retry + " max " + max, max > ceilings[retry - 1] * 9 / 10);
+        }
+    }
+
+    @Test
+    public void delayReachesCeilingAtTopOfRandomRange() {
+        policy = new ExponentialBackoffRetryPolicy(clock, fixedRandom(0.99999999)).setDelay(1000, 8000);
+        assertEquals(1000, policy.nextDelay(DEVICE, 1, 0));
+        assertEquals(2000, policy.nextDelay(DEVICE, 2, 0));
+        assertEquals(4000, policy.nextDelay(DEVICE, 3, 0));
+        assertEquals(8000, policy.nextDelay(DEVICE, 4, 0));
+        assertEquals(8000, policy.nextDelay(DEVICE, 64, 0));
+        policy = new ExponentialBackoffRetryPolicy(clock, fixedRandom(0)).setDelay(1000, 8000);
+        assertEquals(0, policy.nextDelay(DEVICE, 5, 0));
+    }
+
+    @Test
+    public void stopsOnceElapsedWouldPassMaxElapsed() {
+        policy = new ExponentialBackoffRetryPolicy(clock, fixedRandom(0.99999999)).setDelay(1000, 8000).setMaxElapsed(10000);
+        assertEquals(RetryPolicy.STOP, policy.nextDelay(DEVICE, 1, 10000));
+        assertEquals(RetryPolicy.STOP, policy.nextDelay(DEVICE, 4, 2000));
+        assertEquals(4000, policy.nextDelay(DEVICE, 3, 2000));
+    }
+
+    @Test
+    public void circuitOpensAfterThreshold() {
+        policy.onFailure(DEVICE);
+        policy.onFailure(DEVICE);
+        assertTrue(policy.allowConnect(DEVICE));
+        assertEquals(0, policy.getOpenRemaining(DEVICE));
+        policy.onFailure(DEVICE);
+        assertFalse(policy.allowConnect(DEVICE));
+        assertEquals(60*1000, policy.getOpenRemaining(DEVICE));
+        //其它设备不受影响
+        assertTrue(policy.allowConnect("00:00:00:00:00:02"));
+    }
+
+    @Test
+    public void halfOpenAllowsSingleProbe() {
+        open();
+        clock.advance(60*1000 - 1);
+        assertFalse(policy.allowConnect(DEVICE));
+        clock.advance(1);
+        assertTrue(policy.allowConnect(DEVICE));
+        assertFalse(policy.allowConnect(DEVICE));
+        //试探一直没有结果，过一个熔断时间后再放行
+        clock.advance(60*1000);
+        assertTrue(policy.allowConnect(DEVICE));
+        assertFalse(policy.allowConnect(DEVICE));
+    }
+
+    @Test
+    public void failedProbeDoublesOpenDurationUpToMax() {
+        open();
+        long[] durations = {120*1000, 240*1000, 240*1000};
+        for (long duration : durations){
+            clock.advance(policy.getOpenRemaining(DEVICE));
+            assertTrue(policy.allowConnect(DEVICE));
+            policy.onFailure(DEVICE);
+            assertFalse(policy.allowConnect(DEVICE));
+            assertEquals(duration, policy.getOpenRemaining(DEVICE));
+        }
+    }
+
+    @Test
+    public void successfulProbeClosesCircuit() {
+        open();
+        clock.advance(60*1000);
+        assertTrue(policy.allowConnect(DEVICE));
+        policy.onSuccess(DEVICE);
+        assertTrue(policy.allowConnect(DEVICE));
+        assertTrue(policy.allowConnect(DEVICE));
+        assertEquals(0, policy.getOpenRemaining(DEVICE));
+        //重新从0开始计数
+        policy.onFailure(DEVICE);
+        policy.onFailure(DEVICE);
+        assertTrue(policy.allowConnect(DEVICE));
+    }
+
+    @Test
+    public void disabledBreakerNeverOpens() {
+        policy.setCircuitBreaker(0, 1000, 1000);
+        for (int i = 0; i < 10; i++){
+            policy.onFailure(DEVICE);
+        }
+        assertTrue(policy.allowConnect(DEVICE));
+    }
+
+    private void open(){
+        for (int i = 0; i < 3; i++){
+            policy.onFailure(DEVICE);
+        }
+        assertFalse(policy.allowConnect(DEVICE));
+    }
+
+    private static Random fixedRandom(final double value){
+        return new Random() {
+            @Override
+            public double nextDouble() {
+                return value;
+            }
+        };
+    }
+
+}
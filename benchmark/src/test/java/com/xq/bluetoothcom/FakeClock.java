@@ -0,0 +1,17 @@
+package com.xq.bluetoothcom;
+
+//测试用的手动时钟
+class FakeClock implements Clock {
+
+    private long now;
+
+    @Override
+    public synchronized long uptimeMillis() {
+        return now;
+    }
+
+    synchronized void advance(long millis){
+        now += millis;
+    }
+
+}
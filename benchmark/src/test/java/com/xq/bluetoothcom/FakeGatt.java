@@ -0,0 +1,72 @@
+package com.xq.bluetoothcom;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+
+//模拟协议栈的写入队列：writeCharacteristic只入队，每次connectionEvent最多发出packetsPerEvent个包，
+//发出后才回调onCharacteristicWrite，回调里新写入的包要等下一次connectionEvent
+class FakeGatt extends BluetoothGatt {
+
+    static final UUID SERVICE = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+
+    static final UUID CHARACTERISTIC = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+
+    static final CharacteristicRef REF = new CharacteristicRef(SERVICE, CHARACTERISTIC);
+
+    final GattCallbackDispatcher dispatcher;
+
+    final BluetoothGattCharacteristic characteristic;
+
+    private final Queue<byte[]> txQueue = new ArrayDeque<>();
+
+    final List<byte[]> sent = new ArrayList<>();
+
+    //Android在上一个写入回调之前会拒绝新的写入
+    private boolean rejectWhileBusy;
+
+    FakeGatt(String mac) {
+        super(new BluetoothDevice(mac));
+        dispatcher = new GattCallbackDispatcher(mac);
+        BluetoothGattService service = new BluetoothGattService(SERVICE);
+        getServices().add(service);
+        characteristic = new BluetoothGattCharacteristic(service, CHARACTERISTIC);
+    }
+
+    FakeGatt setRejectWhileBusy(boolean rejectWhileBusy) {
+        this.rejectWhileBusy = rejectWhileBusy;
+        return this;
+    }
+
+    @Override
+    public synchronized boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        if (rejectWhileBusy && !txQueue.isEmpty()){
+            return false;
+        }
+        txQueue.offer(characteristic.getValue());
+        return true;
+    }
+
+    //返回这次发出的包数
+    int connectionEvent(int packetsPerEvent){
+        List<byte[]> packets = new ArrayList<>();
+        synchronized (this){
+            while (packets.size() < packetsPerEvent && !txQueue.isEmpty()){
+                packets.add(txQueue.poll());
+            }
+        }
+        for (byte[] packet : packets){
+            sent.add(packet);
+            dispatcher.onCharacteristicWrite(this, characteristic, BluetoothGatt.GATT_SUCCESS);
+        }
+        return packets.size();
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.xq.bluetoothcom;
+
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GattFutureTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void thenTransformsSuccess() {
+        GattFuture<Integer> future = new GattFuture<>();
+        GattFuture<String> result = future.then(new GattFuture.Transform<Integer, String>() {
+            @Override
+            public String apply(Integer value) {
+                return "v" + value;
+            }
+        });
+        assertFalse(result.isDone());
+        future.setSuccess(1);
+        assertEquals("v1", result.getValue());
+    }
+
+    @Test
+    public void thenThrowingFailsDownstream() {
+        GattFuture<String> result = GattFuture.succeeded(1).then(new GattFuture.Transform<Integer, String>() {
+            @Override
+            public String apply(Integer value) {
+                throw new IllegalStateException("boom");
+            }
+        });
+        assertTrue(result.isDone());
+        assertFalse(result.isSuccess());
+        assertEquals(GattFuture.CODE_EXCEPTION, result.getErrorCode());
+        assertTrue(result.getErrorInfo().contains("boom"));
+    }
+
+    @Test
+    public void composeChainsNextOperation() {
+        final GattFuture<String> next = new GattFuture<>();
+        GattFuture<String> result = GattFuture.succeeded(1).compose(new GattFuture.Continuation<Integer, String>() {
+            @Override
+            public GattFuture<String> apply(Integer value) {
+                return next;
+            }
+        });
+        assertFalse(result.isDone());
+        next.setError("fail", "133");
+        assertEquals("133", result.getErrorCode());
+    }
+
+    @Test
+    public void composeThrowingOrNullFailsDownstream() {
+        GattFuture<String> thrown = GattFuture.succeeded(1).compose(new GattFuture.Continuation<Integer, String>() {
+            @Override
+            public GattFuture<String> apply(Integer value) {
+                throw new IllegalArgumentException("bad");
+            }
+        });
+        assertEquals(GattFuture.CODE_EXCEPTION, thrown.getErrorCode());
+
+        GattFuture<String> nul = GattFuture.succeeded(1).compose(new GattFuture.Continuation<Integer, String>() {
+            @Override
+            public GattFuture<String> apply(Integer value) {
+                return null;
+            }
+        });
+        assertTrue(nul.isDone());
+        assertEquals(GattFuture.CODE_EXCEPTION, nul.getErrorCode());
+    }
+
+    @Test
+    public void errorSkipsTransform() {
+        GattFuture<String> result = GattFuture.<Integer>failed("fail", "8").then(new GattFuture.Transform<Integer, String>() {
+            @Override
+            public String apply(Integer value) {
+                throw new AssertionError();
+            }
+        });
+        assertEquals("8", result.getErrorCode());
+    }
+
+    @Test
+    public void writeAndAwaitNotifyCompletesOnMatchingNotify() {
+        FakeGatt gatt = new FakeGatt("00:00:00:00:00:11");
+        BluetoothChannel channel = channel(gatt);
+        GattFuture<byte[]> future = channel.writeAndAwaitNotify(FakeGatt.REF, new byte[]{1}, FakeGatt.REF, new BluetoothChannel.ResponseMatcher() {
+            @Override
+            public boolean matches(byte[] request, byte[] response) {
+                return response[0] == request[0];
+            }
+        }, 1000);
+        gatt.dispatcher.onCharacteristicChanged(gatt, gatt.characteristic, new byte[]{2});
+        gatt.dispatcher.onCharacteristicChanged(gatt, gatt.characteristic, new byte[]{1});
+        //写入回调之前不会完成
+        assertFalse(future.isDone());
+        gatt.connectionEvent(1);
+        assertTrue(future.isSuccess());
+        assertEquals(1, future.getValue()[0]);
+    }
+
+    //取消等待中的请求/响应后立即释放串行队列
+    @Test
+    public void cancelAwaitingNotifyReleasesQueue() {
+        FakeGatt gatt = new FakeGatt("00:00:00:00:00:12");
+        BluetoothChannel channel = channel(gatt);
+        GattFuture<byte[]> future = channel.writeAndAwaitNotify(FakeGatt.REF, new byte[]{1}, FakeGatt.REF, null, 1000);
+        GattFuture<Void> next = channel.writeCharacteristicAsync(FakeGatt.REF, new byte[]{3});
+        gatt.connectionEvent(1);
+        assertFalse(future.isDone());
+        assertEquals(1, gatt.sent.size());
+
+        assertTrue(future.cancel());
+        assertEquals(BluetoothChannel.CODE_CANCELLED, future.getErrorCode());
+        assertFalse(future.cancel());
+        gatt.connectionEvent(1);
+        assertTrue(next.isSuccess());
+        assertEquals(3, gatt.sent.get(1)[0]);
+    }
+
+    @Test
+    public void cancelQueuedAsyncOperation() {
+        FakeGatt gatt = new FakeGatt("00:00:00:00:00:13");
+        BluetoothChannel channel = channel(gatt);
+        GattFuture<Void> first = channel.writeCharacteristicAsync(FakeGatt.REF, new byte[]{1});
+        GattFuture<Void> second = channel.writeCharacteristicAsync(FakeGatt.REF, new byte[]{2});
+        assertTrue(second.cancel());
+        assertEquals(BluetoothChannel.CODE_CANCELLED, second.getErrorCode());
+        gatt.connectionEvent(2);
+        assertTrue(first.isSuccess());
+        assertEquals(1, gatt.sent.size());
+        //不是由通道操作产生的future不能取消
+        assertFalse(new GattFuture<Void>().cancel());
+    }
+
+    private static BluetoothChannel channel(FakeGatt gatt) {
+        return new BluetoothChannel(gatt, gatt.dispatcher, BluetoothChannel.DEFAULT_MTU, MetricsSink.NONE, DIRECT, new BluetoothChannel.OnCloseListener() {
+            @Override
+            public void onClose() {
+            }
+        });
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.xq.bluetoothcom;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//测试用的内存SharedPreferences，apply和commit都立即生效
+class MemorySharedPreferences implements SharedPreferences {
+
+    private final Map<String, Object> map = new HashMap<>();
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        Object value = map.get(key);
+        return value == null ? defValue : (Integer) value;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        Object value = map.get(key);
+        return value == null ? defValue : (Long) value;
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        Object value = map.get(key);
+        return value == null ? defValue : (String) value;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new Editor() {
+
+            private final Map<String, Object> pending = new HashMap<>();
+
+            @Override
+            public Editor putInt(String key, int value) {
+                pending.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                pending.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putString(String key, String value) {
+                pending.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                pending.put(key, null);
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                synchronized (MemorySharedPreferences.this){
+                    for (Map.Entry<String, Object> entry : pending.entrySet()){
+                        if (entry.getValue() == null){
+                            map.remove(entry.getKey());
+                        } else {
+                            map.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+        };
+    }
+
+}
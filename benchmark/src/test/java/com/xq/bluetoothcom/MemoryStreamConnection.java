@@ -0,0 +1,158 @@
+package com.xq.bluetoothcom;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+//测试用的内存管道连接，pair()返回互相连通的两端，一端写入的数据从另一端读出。
+//任意一端close后两个方向都关闭，阻塞中的读取返回-1，写入抛出IOException
+class MemoryStreamConnection implements StreamConnection {
+
+    private final String address;
+
+    private final Pipe in;
+
+    private final Pipe out;
+
+    private volatile boolean connected;
+
+    private MemoryStreamConnection(String address, Pipe in, Pipe out) {
+        this.address = address;
+        this.in = in;
+        this.out = out;
+    }
+
+    //返回的两端中第一个交给被测代码，第二个当作设备
+    static MemoryStreamConnection[] pair(String address){
+        Pipe a = new Pipe();
+        Pipe b = new Pipe();
+        return new MemoryStreamConnection[]{new MemoryStreamConnection(address, a, b), new MemoryStreamConnection(address, b, a)};
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (in.isClosed()){
+            throw new IOException("closed");
+        }
+        connected = true;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected && !in.isClosed();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in.inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out.outputStream;
+    }
+
+    @Override
+    public void close() {
+        in.close();
+        out.close();
+    }
+
+    //单向的阻塞字节管道
+    private static class Pipe {
+
+        private byte[] buffer = new byte[64];
+
+        private int readIndex;
+
+        private int writeIndex;
+
+        private boolean closed;
+
+        private final InputStream inputStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Pipe.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+                synchronized (Pipe.this){
+                    return writeIndex - readIndex;
+                }
+            }
+        };
+
+        private final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Pipe.this.write(b, off, len);
+            }
+        };
+
+        private synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0){
+                return 0;
+            }
+            while (readIndex == writeIndex && !closed){
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+            }
+            if (readIndex == writeIndex){
+                return -1;
+            }
+            int count = Math.min(len, writeIndex - readIndex);
+            System.arraycopy(buffer, readIndex, b, off, count);
+            readIndex += count;
+            return count;
+        }
+
+        private synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (closed){
+                throw new IOException("closed");
+            }
+            if (writeIndex + len > buffer.length){
+                //先把已读的部分挪走，不够再扩容
+                int remaining = writeIndex - readIndex;
+                byte[] target = remaining + len > buffer.length ? new byte[Math.max(buffer.length*2, remaining + len)] : buffer;
+                System.arraycopy(buffer, readIndex, target, 0, remaining);
+                buffer = target;
+                readIndex = 0;
+                writeIndex = remaining;
+            }
+            System.arraycopy(b, off, buffer, writeIndex, len);
+            writeIndex += len;
+            notifyAll();
+        }
+
+        private synchronized boolean isClosed(){
+            return closed;
+        }
+
+        private synchronized void close(){
+            closed = true;
+            notifyAll();
+        }
+    }
+
+}
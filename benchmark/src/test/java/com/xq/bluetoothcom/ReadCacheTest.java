@@ -0,0 +1,152 @@
+package com.xq.bluetoothcom;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReadCacheTest {
+
+    private static final CharacteristicRef REF = new CharacteristicRef(
+            UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb"),
+            UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb"));
+
+    private final Queue<Runnable> posted = new ArrayDeque<>();
+
+    private final List<String> results = new ArrayList<>();
+
+    private FakeClock clock;
+
+    private ReadCache readCache;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        readCache = new ReadCache(clock, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                posted.offer(command);
+            }
+        });
+        readCache.setTtl(REF, 1000);
+    }
+
+    @Test
+    public void hitIsPostedToExecutor() {
+        readCache.read(REF, callback("first")).onRead(new byte[]{1});
+        assertEquals("[first 1]", results.toString());
+
+        assertNull(readCache.read(REF, callback("hit")));
+        //不在调用线程上同步回调
+        assertEquals("[first 1]", results.toString());
+        runPosted();
+        assertEquals("[first 1, hit 1]", results.toString());
+    }
+
+    @Test
+    public void concurrentReadsShareOneRequest() {
+        BluetoothChannel.OnReadCallback leader = readCache.read(REF, callback("a"));
+        assertNotNull(leader);
+        assertNull(readCache.read(REF, callback("b")));
+        leader.onRead(new byte[]{7});
+        assertEquals("[a 7, b 7]", results.toString());
+    }
+
+    @Test
+    public void expiresAfterTtl() {
+        readCache.read(REF, callback("first")).onRead(new byte[]{1});
+        clock.advance(1000);
+        assertNotNull(readCache.read(REF, callback("second")));
+    }
+
+    @Test
+    public void notificationInvalidatesEntry() {
+        readCache.read(REF, callback("first")).onRead(new byte[]{1});
+        //其它特征值的通知不影响
+        readCache.invalidateCharacteristic(REF.getServiceUUID(), UUID.randomUUID());
+        assertNull(readCache.read(REF, callback("hit")));
+        readCache.invalidateCharacteristic(REF.getServiceUUID(), REF.getCharacterUUID());
+        assertNotNull(readCache.read(REF, callback("miss")));
+    }
+
+    @Test
+    public void notificationDuringReadIsNotCached() {
+        BluetoothChannel.OnReadCallback leader = readCache.read(REF, callback("a"));
+        readCache.invalidateCharacteristic(REF.getServiceUUID(), REF.getCharacterUUID());
+        leader.onRead(new byte[]{1});
+        assertNotNull(readCache.read(REF, callback("b")));
+    }
+
+    //读A、写入、读B按入队顺序执行，B不能合并到A上拿到写入前的值
+    @Test
+    public void readQueuedAfterWriteDoesNotJoinEarlierRead() {
+        BluetoothChannel.OnReadCallback leaderA = readCache.read(REF, callback("a"));
+        assertNotNull(leaderA);
+        readCache.onWriteQueued(REF);
+        BluetoothChannel.OnReadCallback leaderB = readCache.read(REF, callback("b"));
+        assertNotNull(leaderB);
+        //写入之后的读取之间照常合并
+        assertNull(readCache.read(REF, callback("c")));
+
+        leaderA.onRead(new byte[]{1});
+        assertEquals("[a 1]", results.toString());
+        //A的结果是写入前的值，不能缓存，之后的读取等B
+        assertNull(readCache.read(REF, callback("d")));
+        assertTrue(posted.isEmpty());
+        readCache.onWriteFinished(REF);
+        leaderB.onRead(new byte[]{2});
+        assertEquals("[a 1, b 2, c 2, d 2]", results.toString());
+        assertNull(readCache.read(REF, callback("hit")));
+        runPosted();
+        assertEquals("[a 1, b 2, c 2, d 2, hit 2]", results.toString());
+    }
+
+    //写入还没完成时，写入前读到的值不能命中
+    @Test
+    public void pendingWriteBypassesCachedValue() {
+        readCache.read(REF, callback("first")).onRead(new byte[]{1});
+        readCache.onWriteQueued(REF);
+        assertNotNull(readCache.read(REF, callback("during")));
+    }
+
+    @Test
+    public void disabledTtlStopsInvalidationLookups() {
+        readCache.read(REF, callback("first")).onRead(new byte[]{1});
+        readCache.setTtl(REF, -1);
+        readCache.invalidateCharacteristic(REF.getServiceUUID(), REF.getCharacterUUID());
+        BluetoothChannel.OnReadCallback callback = callback("plain");
+        assertEquals(callback, readCache.read(REF, callback));
+    }
+
+    private void runPosted(){
+        Runnable runnable;
+        while ((runnable = posted.poll()) != null){
+            runnable.run();
+        }
+    }
+
+    private BluetoothChannel.OnReadCallback callback(final String name){
+        return new BluetoothChannel.OnReadCallback() {
+            @Override
+            public void onRead(byte[] bytes) {
+                results.add(name + " " + bytes[0]);
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                results.add(name + " " + info);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.xq.bluetoothcom;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReliableWriteTransactionTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final List<String> events = new ArrayList<>();
+
+    @Test
+    public void executesAfterAllWritesArePrepared() {
+        ReliableGatt gatt = new ReliableGatt(BluetoothGatt.GATT_SUCCESS);
+        BluetoothChannel channel = channel(gatt);
+        channel.newReliableWrite()
+                .write(FakeGatt.REF, new byte[]{1})
+                .write(FakeGatt.REF, new byte[]{2})
+                .execute(callback());
+        assertEquals(1, gatt.connectionEvent(1));
+        assertEquals("[begin]", events.toString());
+        assertEquals(1, gatt.connectionEvent(1));
+        assertEquals("[begin, execute, success]", events.toString());
+        channel.close();
+    }
+
+    //出错后等onReliableWriteCompleted回来才回调失败
+    @Test
+    public void failedWriteAbortsTransaction() {
+        ReliableGatt gatt = new ReliableGatt(BluetoothGatt.GATT_FAILURE);
+        BluetoothChannel channel = channel(gatt);
+        channel.newReliableWrite()
+                .write(FakeGatt.REF, new byte[]{1})
+                .write(FakeGatt.REF, new byte[]{2})
+                .execute(callback());
+        assertEquals(1, gatt.connectionEvent(1));
+        assertEquals("[begin]", events.toString());
+        assertEquals(1, gatt.connectionEvent(1));
+        assertEquals("[begin, abort]", events.toString());
+        gatt.dispatcher.onReliableWriteCompleted(gatt, BluetoothGatt.GATT_SUCCESS);
+        assertEquals("[begin, abort, onCharacteristicWrite fail " + BluetoothGatt.GATT_FAILURE + "]", events.toString());
+        assertEquals(0, gatt.connectionEvent(1));
+        channel.close();
+    }
+
+    private BluetoothChannel channel(FakeGatt gatt){
+        return new BluetoothChannel(gatt, gatt.dispatcher, BluetoothChannel.DEFAULT_MTU, MetricsSink.NONE, DIRECT, new BluetoothChannel.OnCloseListener() {
+            @Override
+            public void onClose() {
+            }
+        });
+    }
+
+    private BluetoothChannel.OnActionCallback callback(){
+        return new BluetoothChannel.OnActionCallback() {
+            @Override
+            public void onSuccess() {
+                events.add("success");
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                events.add(info + " " + code);
+            }
+        };
+    }
+
+    //第一个写入之后的写入都以writeStatus回调
+    private class ReliableGatt extends FakeGatt {
+
+        private final int writeStatus;
+
+        private int writes;
+
+        private boolean failPending;
+
+        ReliableGatt(int writeStatus) {
+            super("00:00:00:00:00:01");
+            this.writeStatus = writeStatus;
+        }
+
+        @Override
+        public boolean beginReliableWrite() {
+            events.add("begin");
+            return true;
+        }
+
+        @Override
+        public boolean executeReliableWrite() {
+            events.add("execute");
+            dispatcher.onReliableWriteCompleted(this, GATT_SUCCESS);
+            return true;
+        }
+
+        @Override
+        public void abortReliableWrite() {
+            events.add("abort");
+        }
+
+        @Override
+        public synchronized boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+            if (writes++ == 0 || writeStatus == GATT_SUCCESS){
+                return super.writeCharacteristic(characteristic);
+            }
+            failPending = true;
+            return true;
+        }
+
+        @Override
+        int connectionEvent(int packetsPerEvent) {
+            if (!failPending){
+                return super.connectionEvent(packetsPerEvent);
+            }
+            failPending = false;
+            dispatcher.onCharacteristicWrite(this, characteristic, writeStatus);
+            return 1;
+        }
+    }
+
+}
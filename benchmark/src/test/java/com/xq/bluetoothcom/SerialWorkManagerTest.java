@@ -0,0 +1,189 @@
+package com.xq.bluetoothcom;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SerialWorkManagerTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private FakeClock clock;
+
+    private TimerWheel timerWheel;
+
+    private SerialWorkManager serialWorkManager;
+
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        timerWheel = new TimerWheel(clock, 10, 8);
+        serialWorkManager = new SerialWorkManager(DIRECT, timerWheel, clock);
+    }
+
+    @Test
+    public void timeoutReleasesSlotAndRunsNext() {
+        SerialWorkManager.WorkRunnable first = work("first");
+        serialWorkManager.joinWork(100, first);
+        serialWorkManager.joinWork(work("second"));
+        assertEquals("[run first]", events.toString());
+
+        clock.advance(100);
+        assertEquals(1, timerWheel.expireTimeouts());
+        assertEquals("[run first, timeout first, run second]", events.toString());
+        //超时后的结果不再生效
+        assertFalse(first.leave());
+    }
+
+    @Test
+    public void leaveBeforeTimeoutCancelsTimer() {
+        SerialWorkManager.WorkRunnable first = work("first");
+        serialWorkManager.joinWork(100, first);
+        assertEquals(1, timerWheel.pendingTimeouts());
+        assertTrue(first.leave());
+        assertEquals(0, timerWheel.pendingTimeouts());
+        clock.advance(200);
+        assertEquals(0, timerWheel.expireTimeouts());
+        assertEquals("[run first]", events.toString());
+    }
+
+    @Test
+    public void queuedWorkCanLeave() {
+        serialWorkManager.joinWork(work("first"));
+        SerialWorkManager.WorkRunnable second = work("second");
+        serialWorkManager.joinWork(second);
+        assertTrue(second.leave());
+        assertFalse(serialWorkManager.containWork(second));
+    }
+
+    @Test
+    public void higherPriorityRunsFirst() {
+        SerialWorkManager.WorkRunnable first = work("first");
+        serialWorkManager.joinWork(Priority.INTERACTIVE, first);
+        serialWorkManager.joinWork(Priority.BULK, work("bulk"));
+        serialWorkManager.joinWork(Priority.CONTROL, work("control"));
+        first.leave();
+        assertEquals("[run first, run control]", events.toString());
+    }
+
+    //BULK等待2个AGING_INTERVAL后与CONTROL同级，等得更久的先执行
+    @Test
+    public void agingPromotesWaitingBulk() {
+        SerialWorkManager.WorkRunnable first = work("first");
+        serialWorkManager.joinWork(Priority.INTERACTIVE, first);
+        serialWorkManager.joinWork(Priority.BULK, work("bulk"));
+        clock.advance(2000);
+        serialWorkManager.joinWork(Priority.CONTROL, work("control"));
+        first.leave();
+        assertEquals("[run first, run bulk]", events.toString());
+    }
+
+    @Test
+    public void closedManagerRejectsWork() {
+        serialWorkManager.close();
+        assertFalse(serialWorkManager.joinWork(work("late")));
+        assertEquals("[]", events.toString());
+    }
+
+    //关闭时进行中和排队中的任务都要有回调，否则等结果的一方会一直挂着
+    @Test
+    public void closeNotifiesCurrentAndQueuedWork() {
+        SerialWorkManager.WorkRunnable first = work("first");
+        serialWorkManager.joinWork(100, first);
+        serialWorkManager.joinWork(Priority.BULK, work("bulk"));
+        serialWorkManager.joinWork(Priority.CONTROL, work("control"));
+        serialWorkManager.close();
+        assertEquals("[run first, close first, close control, close bulk]", events.toString());
+        assertEquals(0, timerWheel.pendingTimeouts());
+        //关闭后迟到的结果不再生效
+        assertFalse(first.leave());
+        serialWorkManager.close();
+        assertEquals(4, events.size());
+    }
+
+    //executor拒绝时不能一直占着队列，被拒绝的任务回调onRejected，异常不抛给调用方
+    @Test
+    public void rejectedExecutionReleasesSlot() {
+        final boolean[] reject = {true};
+        serialWorkManager = new SerialWorkManager(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (reject[0]){
+                    throw new RejectedExecutionException();
+                }
+                command.run();
+            }
+        }, timerWheel, clock);
+        assertTrue(serialWorkManager.joinWork(100, work("lost")));
+        assertEquals("[reject lost]", events.toString());
+        assertEquals(0, timerWheel.pendingTimeouts());
+        reject[0] = false;
+        assertTrue(serialWorkManager.joinWork(work("next")));
+        assertEquals("[reject lost, run next]", events.toString());
+    }
+
+    //leaveWork可能在binder线程上调用，后续任务被拒绝时同样只回调onRejected
+    @Test
+    public void rejectionOnLeaveFailsQueuedWork() {
+        final boolean[] reject = {false};
+        serialWorkManager = new SerialWorkManager(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (reject[0]){
+                    throw new RejectedExecutionException();
+                }
+                command.run();
+            }
+        }, timerWheel, clock);
+        SerialWorkManager.WorkRunnable first = work("first");
+        serialWorkManager.joinWork(first);
+        serialWorkManager.joinWork(work("second"));
+        serialWorkManager.joinWork(Priority.BULK, work("third"));
+        reject[0] = true;
+        assertTrue(first.leave());
+        assertEquals("[run first, reject second, reject third]", events.toString());
+        reject[0] = false;
+        serialWorkManager.joinWork(work("fourth"));
+        assertEquals("[run first, reject second, reject third, run fourth]", events.toString());
+    }
+
+    private SerialWorkManager.WorkRunnable work(final String name){
+        return serialWorkManager.new WorkRunnable() {
+            @Override
+            public void run() {
+                events.add("run " + name);
+            }
+
+            @Override
+            public void onTimeout() {
+                events.add("timeout " + name);
+            }
+
+            @Override
+            public void onClose() {
+                events.add("close " + name);
+            }
+
+            @Override
+            public void onRejected() {
+                events.add("reject " + name);
+            }
+        };
+    }
+
+}
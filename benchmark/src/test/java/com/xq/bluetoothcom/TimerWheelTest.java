@@ -0,0 +1,141 @@
+package com.xq.bluetoothcom;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+//不启动工作线程，用假时钟推进后直接调用expireTimeouts
+public class TimerWheelTest {
+
+    private FakeClock clock;
+
+    private TimerWheel timerWheel;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        timerWheel = new TimerWheel(clock, 10, 8);
+    }
+
+    @Test
+    public void firesAfterDeadlineNeverBefore() {
+        AtomicInteger count = new AtomicInteger();
+        timerWheel.newTimeout(counter(count), 25);
+        clock.advance(20);
+        assertEquals(0, timerWheel.expireTimeouts());
+        clock.advance(9);
+        assertEquals(0, timerWheel.expireTimeouts());
+        clock.advance(1);
+        assertEquals(1, timerWheel.expireTimeouts());
+        assertEquals(1, count.get());
+        assertEquals(0, timerWheel.pendingTimeouts());
+    }
+
+    @Test
+    public void cancelledTimeoutDoesNotFire() {
+        AtomicInteger count = new AtomicInteger();
+        TimerWheel.Timeout timeout = timerWheel.newTimeout(counter(count), 30);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        clock.advance(100);
+        assertEquals(0, timerWheel.expireTimeouts());
+        assertEquals(0, count.get());
+        assertEquals(0, timerWheel.pendingTimeouts());
+    }
+
+    @Test
+    public void cancelAfterFireReturnsFalse() {
+        TimerWheel.Timeout timeout = timerWheel.newTimeout(counter(new AtomicInteger()), 10);
+        clock.advance(10);
+        assertEquals(1, timerWheel.expireTimeouts());
+        assertFalse(timeout.cancel());
+    }
+
+    //8格、每格10ms的轮子转一圈是80ms，250ms要等过3圈
+    @Test
+    public void delayLongerThanWheelWaitsForRounds() {
+        AtomicInteger count = new AtomicInteger();
+        timerWheel.newTimeout(counter(count), 250);
+        for (int i = 0; i < 24; i++){
+            clock.advance(10);
+            assertEquals("fired early at " + clock.uptimeMillis(), 0, timerWheel.expireTimeouts());
+        }
+        clock.advance(10);
+        assertEquals(1, timerWheel.expireTimeouts());
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    public void sameBucketDifferentRounds() {
+        AtomicInteger early = new AtomicInteger();
+        AtomicInteger late = new AtomicInteger();
+        timerWheel.newTimeout(counter(early), 20);
+        timerWheel.newTimeout(counter(late), 100);
+        clock.advance(20);
+        assertEquals(1, timerWheel.expireTimeouts());
+        assertEquals(1, early.get());
+        assertEquals(0, late.get());
+        clock.advance(80);
+        assertEquals(1, timerWheel.expireTimeouts());
+        assertEquals(1, late.get());
+    }
+
+    //空闲后直接跳到当前tick，新任务不会因为逐格追赶而提前触发
+    @Test
+    public void idleWheelDoesNotFireEarly() {
+        clock.advance(10000);
+        AtomicInteger count = new AtomicInteger();
+        timerWheel.newTimeout(counter(count), 30);
+        clock.advance(29);
+        assertEquals(0, timerWheel.expireTimeouts());
+        clock.advance(1);
+        assertEquals(1, timerWheel.expireTimeouts());
+    }
+
+    @Test
+    public void taskCanScheduleAnotherTimeout() {
+        final AtomicInteger count = new AtomicInteger();
+        timerWheel.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                timerWheel.newTimeout(counter(count), 10);
+            }
+        }, 10);
+        clock.advance(10);
+        assertEquals(1, timerWheel.expireTimeouts());
+        clock.advance(10);
+        assertEquals(1, timerWheel.expireTimeouts());
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    public void throwingTaskDoesNotStopOthers() {
+        AtomicInteger count = new AtomicInteger();
+        timerWheel.newTimeout(counter(count), 10);
+        timerWheel.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("boom");
+            }
+        }, 10);
+        timerWheel.newTimeout(counter(count), 10);
+        clock.advance(10);
+        assertEquals(3, timerWheel.expireTimeouts());
+        assertEquals(2, count.get());
+    }
+
+    private static Runnable counter(final AtomicInteger count){
+        return new Runnable() {
+            @Override
+            public void run() {
+                count.incrementAndGet();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.xq.bluetoothcom;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrafficControllerTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final long IDLE_TIMEOUT = 2000;
+
+    private final List<String> events = new ArrayList<>();
+
+    private FakeClock clock;
+
+    private TimerWheel timerWheel;
+
+    private SerialWorkManager serialWorkManager;
+
+    private TrafficController trafficController;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        timerWheel = new TimerWheel(clock, 10, 8);
+        serialWorkManager = new SerialWorkManager(DIRECT, timerWheel, clock);
+        BluetoothGatt gatt = new BluetoothGatt(new BluetoothDevice("00:00:00:00:00:21")) {
+            @Override
+            public boolean requestConnectionPriority(int connectionPriority) {
+                events.add("priority " + connectionPriority);
+                return true;
+            }
+
+            @Override
+            public void setPreferredPhy(int txPhy, int rxPhy, int phyOptions) {
+                events.add("phy " + txPhy + " " + rxPhy);
+            }
+        };
+        trafficController = new TrafficController(gatt, serialWorkManager, timerWheel, clock);
+        trafficController.setEnabled(true, BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+    }
+
+    @Test
+    public void bulkActivityBoostsAndRevertsAfterIdle() {
+        trafficController.onBulkActivity();
+        assertEquals("[priority 1, phy 2 2]", events.toString());
+
+        clock.advance(IDLE_TIMEOUT / 2);
+        trafficController.onBulkActivity();
+        advance(IDLE_TIMEOUT / 2);
+        //期间有活动，空闲时间从最后一次活动算起
+        assertEquals(BluetoothGatt.CONNECTION_PRIORITY_HIGH, trafficController.getConnectionPriority());
+        assertEquals(2, events.size());
+
+        advance(IDLE_TIMEOUT / 2);
+        assertEquals("[priority 1, phy 2 2, priority 0, phy 1 1]", events.toString());
+        assertEquals(BluetoothGatt.CONNECTION_PRIORITY_BALANCED, trafficController.getConnectionPriority());
+    }
+
+    @Test
+    public void revertRestoresPreviousPhy() {
+        trafficController.onPhyUpdate(BluetoothDevice.PHY_LE_CODED, BluetoothDevice.PHY_LE_1M);
+        trafficController.onBulkActivity();
+        trafficController.onPhyUpdate(BluetoothDevice.PHY_LE_2M, BluetoothDevice.PHY_LE_2M);
+        advance(IDLE_TIMEOUT);
+        assertEquals("[priority 1, phy 2 2, priority 0, phy 4 1]", events.toString());
+    }
+
+    //请求排在进行中的任务之后，但在排队的BULK任务之前
+    @Test
+    public void boostIsQueuedAsControlWork() {
+        SerialWorkManager.WorkRunnable running = work("running");
+        serialWorkManager.joinWork(Priority.BULK, running);
+        serialWorkManager.joinWork(Priority.BULK, work("bulk"));
+        trafficController.onBulkActivity();
+        assertEquals("[run running]", events.toString());
+
+        running.leave();
+        assertEquals("[run running, priority 1, phy 2 2, run bulk]", events.toString());
+    }
+
+    //占着队列的批量任务开始时直接提速，不用等自己结束
+    @Test
+    public void bulkStartAppliesInsideRunningWork() {
+        SerialWorkManager.WorkRunnable running = serialWorkManager.new WorkRunnable() {
+            @Override
+            public void run() {
+                trafficController.onBulkStart();
+            }
+        };
+        serialWorkManager.joinWork(Priority.BULK, running);
+        assertEquals("[priority 1, phy 2 2]", events.toString());
+        trafficController.onBulkActivity();
+        assertEquals(2, events.size());
+
+        advance(IDLE_TIMEOUT);
+        //恢复请求排在批量任务之后
+        assertEquals(2, events.size());
+        running.leave();
+        assertEquals("[priority 1, phy 2 2, priority 0, phy 1 1]", events.toString());
+    }
+
+    @Test
+    public void disablingWhileBoostedReverts() {
+        trafficController.onBulkActivity();
+        trafficController.setEnabled(false, BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER);
+        assertEquals("[priority 1, phy 2 2, priority 2, phy 1 1]", events.toString());
+        advance(IDLE_TIMEOUT);
+        assertEquals(4, events.size());
+    }
+
+    private void advance(long millis) {
+        clock.advance(millis);
+        timerWheel.expireTimeouts();
+    }
+
+    private SerialWorkManager.WorkRunnable work(final String name) {
+        return serialWorkManager.new WorkRunnable() {
+            @Override
+            public void run() {
+                events.add("run " + name);
+            }
+        };
+    }
+
+}
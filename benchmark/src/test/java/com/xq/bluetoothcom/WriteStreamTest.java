@@ -0,0 +1,230 @@
+package com.xq.bluetoothcom;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//吞吐量按连接事件数计算：每个连接事件最多发出PACKETS_PER_EVENT个包
+public class WriteStreamTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final int PACKETS = 400;
+
+    private static final int PACKETS_PER_EVENT = 6;
+
+    //对比原有的writeCharacteristic请求/响应循环：每次写入回调后才发下一包，每个连接事件只能发出一包
+    @Test
+    public void windowBeatsRequestResponseLoop() {
+        int loopEvents = writeCharacteristicLoop(new FakeGatt("00:00:00:00:00:01"));
+        int windowEvents = transfer(new FakeGatt("00:00:00:00:00:02"), 4);
+        assertEquals(PACKETS, loopEvents);
+        assertEquals(PACKETS / 4, windowEvents);
+        assertEquals(4, loopEvents / windowEvents);
+    }
+
+    @Test
+    public void windowIsCappedByLinkCapacity() {
+        int events = transfer(new FakeGatt("00:00:00:00:00:03"), 16);
+        assertEquals((PACKETS + PACKETS_PER_EVENT - 1) / PACKETS_PER_EVENT, events);
+    }
+
+    //Android上一个写入未回调前writeCharacteristic返回false，窗口实际退化为1，但数据仍然完整送达
+    @Test
+    public void busyStackDegradesToSingleWindow() {
+        int events = transfer(new FakeGatt("00:00:00:00:00:04").setRejectWhileBusy(true), 4);
+        assertEquals(PACKETS, events);
+    }
+
+    @Test
+    public void closingChannelFailsOpenStream() {
+        FakeGatt gatt = new FakeGatt("00:00:00:00:00:05");
+        BluetoothChannel channel = new BluetoothChannel(gatt, gatt.dispatcher, BluetoothChannel.DEFAULT_MTU, MetricsSink.NONE, DIRECT, new BluetoothChannel.OnCloseListener() {
+            @Override
+            public void onClose() {
+            }
+        });
+        WriteStream stream = channel.openWriteStream(FakeGatt.REF);
+        assertTrue(stream.write(packet(0)));
+        final AtomicReference<String> result = new AtomicReference<>();
+        stream.close(new BluetoothChannel.OnActionCallback() {
+            @Override
+            public void onSuccess() {
+                result.set("success");
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                result.set(code);
+            }
+        });
+        channel.close();
+        assertEquals(BluetoothChannel.CODE_DISCONNECTED, result.get());
+    }
+
+    //超过MTU-3的数据按MTU拆包，不会被协议栈截断
+    @Test
+    public void oversizedWriteIsSplitByMtu() {
+        FakeGatt gatt = new FakeGatt("00:00:00:00:00:07");
+        BluetoothChannel channel = new BluetoothChannel(gatt, gatt.dispatcher, BluetoothChannel.DEFAULT_MTU, MetricsSink.NONE, DIRECT, new BluetoothChannel.OnCloseListener() {
+            @Override
+            public void onClose() {
+            }
+        });
+        WriteStream stream = channel.openWriteStream(FakeGatt.REF);
+        byte[] bytes = new byte[45];
+        for (int i = 0; i < bytes.length; i++){
+            bytes[i] = (byte) i;
+        }
+        assertTrue(stream.write(bytes));
+        gatt.connectionEvent(PACKETS_PER_EVENT);
+        assertEquals(3, gatt.sent.size());
+        assertArrayEquals(Arrays.copyOfRange(bytes, 0, 20), gatt.sent.get(0));
+        assertArrayEquals(Arrays.copyOfRange(bytes, 20, 40), gatt.sent.get(1));
+        assertArrayEquals(Arrays.copyOfRange(bytes, 40, 45), gatt.sent.get(2));
+        assertEquals(45, stream.getBytesWritten());
+        channel.close();
+    }
+
+    //协议栈丢了写入回调时，超过操作超时没有进展就失败并释放串行队列
+    @Test
+    public void lostAckTimesOutAndReleasesQueue() throws Exception {
+        FakeGatt gatt = new FakeGatt("00:00:00:00:00:06");
+        BluetoothChannel channel = new BluetoothChannel(gatt, gatt.dispatcher, BluetoothChannel.DEFAULT_MTU, MetricsSink.NONE, DIRECT, new BluetoothChannel.OnCloseListener() {
+            @Override
+            public void onClose() {
+            }
+        });
+        channel.setOperationTimeout(100);
+        WriteStream stream = channel.openWriteStream(FakeGatt.REF);
+        assertTrue(stream.write(packet(0)));
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<String> result = new AtomicReference<>();
+        stream.close(new BluetoothChannel.OnActionCallback() {
+            @Override
+            public void onSuccess() {
+                result.set("success");
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                result.set(code);
+                latch.countDown();
+            }
+        });
+        //不调用connectionEvent，写入一直得不到确认
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(BluetoothChannel.CODE_TIMEOUT, result.get());
+        final AtomicReference<String> next = new AtomicReference<>();
+        channel.requestMtu(64, new BluetoothChannel.OnActionCallback() {
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                next.set(info);
+            }
+        });
+        //串行队列已经释放，下一个操作得以执行（替身的requestMtu返回false）
+        assertEquals("requestMtu error", next.get());
+        channel.close();
+    }
+
+    private int writeCharacteristicLoop(final FakeGatt gatt){
+        final BluetoothChannel channel = new BluetoothChannel(gatt, gatt.dispatcher, BluetoothChannel.DEFAULT_MTU, MetricsSink.NONE, DIRECT, new BluetoothChannel.OnCloseListener() {
+            @Override
+            public void onClose() {
+            }
+        });
+        final AtomicReference<String> result = new AtomicReference<>();
+        channel.writeCharacteristic(FakeGatt.REF, packet(0), new BluetoothChannel.OnActionCallback() {
+
+            private int index;
+
+            @Override
+            public void onSuccess() {
+                index++;
+                if (index < PACKETS){
+                    channel.writeCharacteristic(FakeGatt.REF, packet(index), this);
+                } else {
+                    result.set("success");
+                }
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                result.set(info);
+            }
+        });
+        int events = 0;
+        while (result.get() == null){
+            assertTrue("stalled after " + events + " events", gatt.connectionEvent(PACKETS_PER_EVENT) > 0);
+            events++;
+        }
+        assertEquals("success", result.get());
+        assertEquals(PACKETS, gatt.sent.size());
+        channel.close();
+        return events;
+    }
+
+    private int transfer(FakeGatt gatt, int windowSize){
+        BluetoothChannel channel = new BluetoothChannel(gatt, gatt.dispatcher, BluetoothChannel.DEFAULT_MTU, MetricsSink.NONE, DIRECT, new BluetoothChannel.OnCloseListener() {
+            @Override
+            public void onClose() {
+            }
+        });
+        WriteStream stream = channel.openWriteStream(FakeGatt.REF).setWindowSize(windowSize);
+        for (int i = 0; i < PACKETS; i++){
+            assertTrue(stream.write(packet(i)));
+        }
+        final AtomicReference<String> result = new AtomicReference<>();
+        stream.close(new BluetoothChannel.OnActionCallback() {
+            @Override
+            public void onSuccess() {
+                result.set("success");
+            }
+
+            @Override
+            public void onError(String info, String code) {
+                result.set(info);
+            }
+        });
+        int events = 0;
+        while (result.get() == null){
+            assertTrue("stalled after " + events + " events", gatt.connectionEvent(PACKETS_PER_EVENT) > 0);
+            events++;
+        }
+        assertEquals("success", result.get());
+        assertEquals(PACKETS * 20, stream.getBytesWritten());
+        assertEquals(PACKETS, gatt.sent.size());
+        for (int i = 0; i < PACKETS; i++){
+            assertArrayEquals(packet(i), gatt.sent.get(i));
+        }
+        channel.close();
+        return events;
+    }
+
+    private static byte[] packet(int index){
+        byte[] bytes = new byte[20];
+        for (int i = 0; i < bytes.length; i++){
+            bytes[i] = (byte) (index + i);
+        }
+        return bytes;
+    }
+
+}